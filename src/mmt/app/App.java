@@ -2,12 +2,19 @@ package mmt.app;
 
 import static pt.tecnico.po.ui.Dialog.IO;
 
+import mmt.core.SearchStrategy;
 import mmt.core.TicketOffice;
 import mmt.core.exceptions.ImportFileException;
 
 import mmt.app.main.MainMenu;
+import mmt.app.main.Message;
+import mmt.app.main.PendingMessages;
+import pt.tecnico.po.ui.Display;
 import pt.tecnico.po.ui.Menu;
 
+import java.util.Arrays;
+import java.util.Locale;
+
 /**
  * Main driver for the travel management application.
  */
@@ -18,6 +25,8 @@ public class App {
     public static void main(String[] args) {
         TicketOffice office = new TicketOffice();
 
+        office.setParallelImport(Boolean.getBoolean("parallelImport")); //$NON-NLS-1$
+
         String datafile = System.getProperty("import"); //$NON-NLS-1$
         if (datafile != null) {
             try {
@@ -28,8 +37,22 @@ public class App {
             }
         }
 
+        String strategy = System.getProperty("search"); //$NON-NLS-1$
+        if (strategy != null) {
+            try {
+                office.setSearchStrategy(SearchStrategy.valueOf(strategy.toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                new Display().popup(Message.unknownSearchStrategy(strategy,
+                    Arrays.toString(SearchStrategy.values()).toLowerCase(Locale.ROOT)));
+            }
+        }
+
+        office.setBackgroundSave(Boolean.getBoolean("backgroundSave")); //$NON-NLS-1$
+
         Menu menu = new MainMenu(office);
         menu.open();
+        PendingMessages.showAll();
+        office.close();
 
         IO.close();
     }
@@ -2,6 +2,7 @@ package mmt.app.itineraries;
 
 import mmt.app.exceptions.*;
 import mmt.core.Itinerary;
+import mmt.core.SearchStrategy;
 import mmt.core.TicketOffice;
 import mmt.core.exceptions.*;
 import pt.tecnico.po.ui.Command;
@@ -48,7 +49,7 @@ public class DoRegisterItinerary extends Command<TicketOffice> {
             _form.parse();
             List<Itinerary> itineraries = _receiver.getItineraries(_passengerId.value(), _departure.value(), _arrival.value(), _date.value(), _time.value());
             for (int i = 0; i < itineraries.size(); i++)
-                _display.addLine("\n" + itineraries.get(i).printItinerary(i + 1));
+                _display.addLine("\n" + label(i, itineraries.size()) + _receiver.printItinerary(itineraries.get(i), i + 1));
             _display.display();
             if (!itineraries.isEmpty()) {
                 _choice.parse();
@@ -66,4 +67,24 @@ public class DoRegisterItinerary extends Command<TicketOffice> {
             throw new BadTimeException(e.getTime());
         }
     }
+
+    /**
+     * Returns the label of an itinerary found by the fewest changes search, which finds, at once, the one
+     * with the fewest changes (the first) and the fastest one (the last).
+     *
+     * @param index of the itinerary.
+     * @param count of itineraries found.
+     * @return the label (with a line break), or an empty string for other itineraries and searches.
+     */
+    private String label(int index, int count) {
+        if (_receiver.getSearchStrategy() != SearchStrategy.FEWEST_CHANGES)
+            return "";
+        if (count == 1)
+            return Message.fastestWithFewestChanges() + "\n";
+        if (index == 0)
+            return Message.fewestChanges() + "\n";
+        if (index == count - 1)
+            return Message.fastest() + "\n";
+        return "";
+    }
 }
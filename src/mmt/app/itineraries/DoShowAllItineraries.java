@@ -1,11 +1,8 @@
 package mmt.app.itineraries;
 
-import mmt.core.Passenger;
 import mmt.core.TicketOffice;
 import pt.tecnico.po.ui.Command;
 
-import java.util.Comparator;
-
 /**
  * §3.4.1. Show all itineraries (for all passengers).
  */
@@ -26,8 +23,7 @@ public class DoShowAllItineraries extends Command<TicketOffice> {
         _receiver.getPassengers()
             .stream()
             .filter(p -> !p.getItineraries().isEmpty())
-            .sorted(Comparator.comparingInt(Passenger::getId))
-            .forEachOrdered(p -> DoShowPassengerItineraries.displayItineraries(_display, p));
+            .forEachOrdered(p -> DoShowPassengerItineraries.displayItineraries(_display, _receiver, p));
         _display.display();
     }
 }
@@ -42,7 +42,7 @@ public class DoShowMostExpensiveItinerary extends Command<TicketOffice> {
             if (itinerary == null)
                 _display.addLine(Message.noItineraries(_id.value()));
             else
-                _display.addLine(itinerary.printItinerary(1));
+                _display.addLine(_receiver.printItinerary(itinerary, 1));
             _display.display();
         } catch (NoSuchPassengerIdException nspide) {
             throw new NoSuchPassengerException(nspide.getId());
@@ -30,7 +30,7 @@ public class DoShowPassengerItineraries extends Command<TicketOffice> {
         _id = _form.addIntegerInput(Message.requestPassengerId());
     }
 
-    static void displayItineraries(Display display, Passenger passenger) {
+    static void displayItineraries(Display display, TicketOffice office, Passenger passenger) {
         List<Itinerary> itineraries = passenger.getItineraries();
         int sizeItineraries = itineraries.size();
         if (sizeItineraries == 0) {
@@ -42,7 +42,7 @@ public class DoShowPassengerItineraries extends Command<TicketOffice> {
             .collect(Collectors.toList());
         display.addLine(String.format(Locale.US, "== Passageiro %d: %s ==\n\n", passenger.getId(), passenger.getName()));
         for (int i = 0; i < sizeItineraries; i++)
-            display.addLine(itineraries.get(i).printItinerary(i + 1));
+            display.addLine(office.printItinerary(itineraries.get(i), i + 1));
     }
 
     /**
@@ -52,7 +52,7 @@ public class DoShowPassengerItineraries extends Command<TicketOffice> {
     public final void execute() throws DialogException {
         try {
             _form.parse();
-            displayItineraries(_display, _receiver.getPassengerById(_id.value()));
+            displayItineraries(_display, _receiver, _receiver.getPassengerById(_id.value()));
             _display.display();
         } catch (NoSuchPassengerIdException nspide) {
             throw new NoSuchPassengerException(nspide.getId());
@@ -1,5 +1,6 @@
 package mmt.app.itineraries;
 
+import mmt.app.main.PendingMessages;
 import mmt.core.TicketOffice;
 import pt.tecnico.po.ui.Command;
 import pt.tecnico.po.ui.Menu;
@@ -19,4 +20,15 @@ public class ItinerariesMenu extends Menu {
     });
   }
 
+  /**
+   * Shows the messages of the background saves done since the last menu, before this one.
+   *
+   * @see pt.tecnico.po.ui.Menu#title()
+   */
+  @Override
+  public String title() {
+    PendingMessages.show();
+    return super.title();
+  }
+
 }
@@ -87,6 +87,27 @@ public final class Message {
     return "O identificador '" + name + "' está em uso na definição de '" + dependent + "'.";
   }
 
+  /**
+   * @return label of the itinerary with the fewest changes
+   */
+  public static String fewestChanges() {
+    return "Com menos mudanças:";
+  }
+
+  /**
+   * @return label of the fastest itinerary
+   */
+  public static String fastest() {
+    return "Mais rápido:";
+  }
+
+  /**
+   * @return label of the itinerary that is both the fastest and the one with the fewest changes
+   */
+  public static String fastestWithFewestChanges() {
+    return "Mais rápido e com menos mudanças:";
+  }
+
   /** Prevent instantiation. */
   private Message() {
     // EMPTY
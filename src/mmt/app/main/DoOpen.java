@@ -33,7 +33,7 @@ public class DoOpen extends Command<TicketOffice> {
             _receiver.associateFile(_file.value());
         } catch (FileNotFoundException fnfe) {
             _display.popup(Message.fileNotFound());
-        } catch (ClassNotFoundException | IOException e) {
+        } catch (IOException e) {
             // shouldn't happen in a controlled test setup
             e.printStackTrace();
         }
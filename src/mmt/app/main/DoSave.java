@@ -2,6 +2,7 @@ package mmt.app.main;
 
 import mmt.core.TicketOffice;
 import mmt.core.exceptions.MissingFileAssociationException;
+import mmt.core.exceptions.SaveInProgressException;
 import pt.tecnico.po.ui.Command;
 import pt.tecnico.po.ui.Input;
 
@@ -30,9 +31,18 @@ public class DoSave extends Command<TicketOffice> {
             _receiver.associateFile(_file.value());
             _form.clear();
         }
+        String file = _receiver.getAssociatedFile();
         try {
-            _receiver.save();
-        } catch (MissingFileAssociationException | IOException e) {
+            if (_receiver.isBackgroundSave())
+                PendingMessages.add(_receiver.saveInBackground().handle((saved, e) -> e == null ? Message.saved(file)
+                    : Message.saveFailed(file, (e.getCause() != null ? e.getCause() : e).getMessage())));
+            else
+                _receiver.save();
+        } catch (SaveInProgressException e) {
+            _display.popup(Message.saveInProgress(e.getFilename()));
+        } catch (IOException e) {
+            _display.popup(Message.saveFailed(file, e.getMessage()));
+        } catch (MissingFileAssociationException e) {
             // shouldn't happen in a controlled test setup
             e.printStackTrace();
         }
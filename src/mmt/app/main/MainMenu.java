@@ -21,4 +21,15 @@ public class MainMenu extends Menu {
     });
   }
 
+  /**
+   * Shows the messages of the background saves done since the last menu, before this one.
+   *
+   * @see pt.tecnico.po.ui.Menu#title()
+   */
+  @Override
+  public String title() {
+    PendingMessages.show();
+    return super.title();
+  }
+
 }
@@ -40,6 +40,40 @@ public final class Message {
     return "Guardar ficheiro como: ";
   }
 
+  /**
+   * @param filename
+   * @return string with "save in progress" message.
+   */
+  public static final String saveInProgress(String filename) {
+    return "O ficheiro '" + filename + "' ainda está a ser guardado.";
+  }
+
+  /**
+   * @param filename
+   * @return string with "saved" message.
+   */
+  public static final String saved(String filename) {
+    return "O ficheiro '" + filename + "' foi guardado.";
+  }
+
+  /**
+   * @param filename
+   * @param reason
+   * @return string with "save failed" message.
+   */
+  public static final String saveFailed(String filename, String reason) {
+    return "Não foi possível guardar o ficheiro '" + filename + "': " + reason;
+  }
+
+  /**
+   * @param name
+   * @param strategies
+   * @return string with "unknown search strategy" message.
+   */
+  public static final String unknownSearchStrategy(String name, String strategies) {
+    return "A estratégia de pesquisa '" + name + "' não existe (estratégias: " + strategies + ").";
+  }
+
   /**
    * @return string confirming that user wants to save.
    */
@@ -0,0 +1,42 @@
+package mmt.app.main;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+
+import pt.tecnico.po.ui.Display;
+
+/**
+ * Messages of background saves, shown by the menu thread before the next menu (the thread of a save never
+ * writes to the display, which the menus are using). Messages are shown in the order the saves started.
+ */
+public final class PendingMessages {
+
+  /** Messages not shown yet (each one completed when its save is done). Only used by the menu thread. */
+  private static final Queue<CompletableFuture<String>> _messages = new ArrayDeque<>();
+
+  /**
+   * @param message
+   *          message, completed when its save is done.
+   */
+  static void add(CompletableFuture<String> message) {
+    _messages.add(message);
+  }
+
+  /**
+   * Shows the messages of the saves already done.
+   */
+  public static void show() {
+    while (!_messages.isEmpty() && _messages.peek().isDone())
+      new Display().popup(_messages.remove().join());
+  }
+
+  /**
+   * Waits for the saves still running, and shows all their messages.
+   */
+  public static void showAll() {
+    while (!_messages.isEmpty())
+      new Display().popup(_messages.remove().join());
+  }
+
+}
@@ -4,8 +4,6 @@ import mmt.core.Passenger;
 import mmt.core.TicketOffice;
 import pt.tecnico.po.ui.Command;
 
-import java.util.Comparator;
-
 /**
  * §3.3.1. Show all passengers.
  */
@@ -25,7 +23,6 @@ public class DoShowAllPassengers extends Command<TicketOffice> {
     public final void execute() {
         _receiver.getPassengers()
             .stream()
-            .sorted(Comparator.comparingInt(Passenger::getId))
             .map(Passenger::toString)
             .forEachOrdered(_display::addLine);
         _display.display();
@@ -4,8 +4,6 @@ import mmt.core.Service;
 import mmt.core.TicketOffice;
 import pt.tecnico.po.ui.Command;
 
-import java.util.Comparator;
-
 /**
  * 3.2.1 Show all services.
  */
@@ -24,7 +22,6 @@ public class DoShowAllServices extends Command<TicketOffice> {
     public final void execute() {
         _receiver.getServices()
             .stream()
-            .sorted(Comparator.comparingInt(Service::getId))
             .map(Service::toString)
             .forEachOrdered(_display::addLine);
 
@@ -8,8 +8,6 @@ import pt.tecnico.po.ui.Command;
 import pt.tecnico.po.ui.DialogException;
 import pt.tecnico.po.ui.Input;
 
-import java.util.Comparator;
-
 /**
  * 3.2.4 Show services arriving at station.
  */
@@ -33,7 +31,6 @@ public class DoShowServicesArrivingAtStation extends Command<TicketOffice> {
         try {
             _receiver.getServiceEnd(_nameArrivingStation.value())
                     .stream()
-                    .sorted(Comparator.comparing(service -> service.getLastStation().getTime(service)))
                     .map(Service::toString)
                     .forEachOrdered(_display::addLine);
         } catch (NoSuchStationNameException nsne) {
@@ -8,8 +8,6 @@ import pt.tecnico.po.ui.Command;
 import pt.tecnico.po.ui.DialogException;
 import pt.tecnico.po.ui.Input;
 
-import java.util.Comparator;
-
 /**
  * 3.2.3 Show services departing from station.
  */
@@ -33,7 +31,6 @@ public class DoShowServicesDepartingFromStation extends Command<TicketOffice> {
         try {
             _receiver.getServiceStart(_nameDepartingStation.value())
                     .stream()
-                    .sorted(Comparator.comparing(service -> service.getFirstStation().getTime(service)))
                     .map(Service::toString)
                     .forEachOrdered(_display::addLine);
         } catch (NoSuchStationNameException nsne) {
@@ -1,5 +1,6 @@
 package mmt.app.service;
 
+import mmt.app.main.PendingMessages;
 import mmt.core.TicketOffice;
 import pt.tecnico.po.ui.Command;
 import pt.tecnico.po.ui.Menu;
@@ -20,4 +21,15 @@ public class ServicesMenu extends Menu {
     });
   }
 
+  /**
+   * Shows the messages of the background saves done since the last menu, before this one.
+   *
+   * @see pt.tecnico.po.ui.Menu#title()
+   */
+  @Override
+  public String title() {
+    PendingMessages.show();
+    return super.title();
+  }
+
 }
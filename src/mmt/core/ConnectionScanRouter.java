@@ -0,0 +1,434 @@
+package mmt.core;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.*;
+
+/**
+ * A ConnectionScanRouter searches itineraries using the Connection Scan Algorithm.
+ * The timetable is flattened into an array of elementary connections (a service going from
+ * one station to the next one), sorted by departure time, so that every search is answered
+ * with a single scan over the connections that depart after the requested time.
+ *
+ * @author Grupo 38
+ * @author João Galinho (87667)
+ * @author Filipe Henriques (87653)
+ * @version 1.0
+ */
+class ConnectionScanRouter implements ItineraryRouter {
+
+    /**
+     * Value representing an unreachable arrival time.
+     */
+    private static final int INFINITY = Integer.MAX_VALUE;
+
+    /**
+     * Timetable being searched.
+     */
+    private final Timetable _timetable;
+
+    /**
+     * Departure time (minutes of the day) of each connection.
+     */
+    private final int[] _departures;
+
+    /**
+     * Arrival time (minutes of the day) of each connection.
+     */
+    private final int[] _arrivals;
+
+    /**
+     * Station index from which each connection departs.
+     */
+    private final int[] _origins;
+
+    /**
+     * Station index at which each connection arrives.
+     */
+    private final int[] _destinations;
+
+    /**
+     * Service index of each connection.
+     */
+    private final int[] _trips;
+
+    /**
+     * Index of the next connection of the same service, or -1 if it is the last one.
+     */
+    private final int[] _nextInTrip;
+
+    /**
+     * Constructor.
+     * Creates the connection array from the given timetable.
+     *
+     * @param timetable to search.
+     */
+    ConnectionScanRouter(Timetable timetable) {
+        _timetable = timetable;
+        int size = 0;
+        for (int service = 0; service < timetable.getServiceCount(); service++)
+            size += Math.max(0, timetable.getEndStop(service) - timetable.getFirstStop(service) - 1);
+
+        // connections are identified by their first stop, and sorted by departure, arrival and stop
+        Integer[] order = new Integer[size];
+        int connection = 0;
+        for (int service = 0; service < timetable.getServiceCount(); service++)
+            for (int stop = timetable.getFirstStop(service); stop + 1 < timetable.getEndStop(service); stop++)
+                order[connection++] = stop;
+        Arrays.sort(order, Comparator.<Integer>comparingInt(timetable::getStopMinutes)
+            .thenComparingInt(stop -> timetable.getStopMinutes(stop + 1))
+            .thenComparingInt(Integer::intValue));
+
+        _departures = new int[size];
+        _arrivals = new int[size];
+        _origins = new int[size];
+        _destinations = new int[size];
+        _trips = new int[size];
+        _nextInTrip = new int[size];
+        int[] positions = new int[timetable.getStopCount()];
+        Arrays.fill(positions, -1);
+
+        for (int i = 0; i < size; i++) {
+            int stop = order[i];
+            _departures[i] = timetable.getStopMinutes(stop);
+            _arrivals[i] = timetable.getStopMinutes(stop + 1);
+            _origins[i] = timetable.getStopStation(stop);
+            _destinations[i] = timetable.getStopStation(stop + 1);
+            positions[stop] = i;
+        }
+        for (int service = 0; service < timetable.getServiceCount(); service++)
+            for (int stop = timetable.getFirstStop(service); stop + 1 < timetable.getEndStop(service); stop++) {
+                _trips[positions[stop]] = service;
+                _nextInTrip[positions[stop]] = positions[stop + 1];
+            }
+    }
+
+    /**
+     * Returns the itineraries from start to end that depart after the given time.
+     * If there are services going directly from start to end, one itinerary for each of those services is returned.
+     * Otherwise, for each service departing from start, the itinerary beginning with that service
+     * that arrives the earliest at end is returned, where a direct connection to end is always preferred
+     * (even if slower) at the stations where a transfer is made.
+     *
+     * @param start Station from which the itineraries will start.
+     * @param end Station to which the itineraries will end.
+     * @param day of the itineraries.
+     * @param time after which the itineraries must depart.
+     * @return the itineraries from start to end, in no particular order.
+     */
+    @Override
+    public List<Itinerary> search(Station start, Station end, LocalDate day, LocalTime time) {
+        if (start.equals(end) || start.getIndex() >= _timetable.getStationCount() || end.getIndex() >= _timetable.getStationCount())
+            return new ArrayList<>();
+
+        Scan scan = new Scan(start.getIndex(), end.getIndex(), firstDepartureAfter(Timetable.toMinutes(time)));
+        scan.run();
+
+        List<Itinerary> itineraries = new ArrayList<>();
+        if (!scan._directs.isEmpty()) {
+            Itinerary.Builder builder = new Itinerary.Builder(day);
+            for (int connection : scan._directs)
+                if (builder.reset(day).addTripEnd(_timetable.getService(_trips[connection]), start, end))
+                    itineraries.add(builder.build());
+        } else {
+            for (int connection : scan._candidates) {
+                Itinerary itinerary = scan.buildItinerary(connection, day);
+                if (itinerary != null)
+                    itineraries.add(itinerary);
+            }
+        }
+        return itineraries;
+    }
+
+    /**
+     * Returns the index of the first connection that departs strictly after the given time.
+     */
+    private int firstDepartureAfter(int minutes) {
+        int low = 0;
+        int high = _departures.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (_departures[middle] > minutes)
+                high = middle;
+            else
+                low = middle + 1;
+        }
+        return low;
+    }
+
+    /**
+     * A Profile keeps the Pareto set of (departure, arrival) pairs of the journeys leaving a station,
+     * added by decreasing departure time.
+     */
+    private static class Profile {
+
+        /**
+         * Departure times (decreasing).
+         */
+        private int[] _departures = new int[4];
+
+        /**
+         * Arrival times at the destination (non-increasing).
+         */
+        private int[] _arrivals = new int[4];
+
+        /**
+         * Connections associated with each entry.
+         */
+        private int[] _connections = new int[4];
+
+        /**
+         * Number of entries.
+         */
+        private int _size;
+
+        /**
+         * Adds an entry if it isn't dominated by the previous ones.
+         * On equal arrivals the earliest departure is kept as well, so that transfers happen as soon as possible.
+         *
+         * @param departure time of the entry.
+         * @param arrival time of the entry.
+         * @param connection associated with the entry.
+         */
+        void add(int departure, int arrival, int connection) {
+            if (_size > 0 && (arrival > _arrivals[_size - 1]
+                || (arrival == _arrivals[_size - 1] && departure == _departures[_size - 1])))
+                return;
+            if (_size == _departures.length) {
+                _departures = Arrays.copyOf(_departures, _size * 2);
+                _arrivals = Arrays.copyOf(_arrivals, _size * 2);
+                _connections = Arrays.copyOf(_connections, _size * 2);
+            }
+            _departures[_size] = departure;
+            _arrivals[_size] = arrival;
+            _connections[_size] = connection;
+            _size++;
+        }
+
+        /**
+         * Returns the entry with the earliest arrival among the ones departing strictly after the given time.
+         *
+         * @param time after which the entry must depart.
+         * @return the index of the entry, or -1 if there is none.
+         */
+        int find(int time) {
+            int low = 0;
+            int high = _size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (_departures[middle] > time)
+                    low = middle + 1;
+                else
+                    high = middle;
+            }
+            return low - 1;
+        }
+    }
+
+    /**
+     * State of a single search.
+     * The connections are scanned from the latest to the earliest one, computing for each service
+     * the arrival at the destination when riding it and, for each station, the profiles of the
+     * direct and of the other journeys leaving it.
+     */
+    private class Scan {
+
+        /**
+         * Station index where the search starts.
+         */
+        private final int _start;
+
+        /**
+         * Station index where the search ends.
+         */
+        private final int _end;
+
+        /**
+         * First connection to be considered.
+         */
+        private final int _first;
+
+        /**
+         * Arrival at the destination when riding each service.
+         */
+        private final int[] _tripArrivals;
+
+        /**
+         * Connection at which to leave each service to obtain _tripArrivals.
+         */
+        private final int[] _tripExits;
+
+        /**
+         * Connection of each service arriving at the destination, or -1 if it isn't reached.
+         */
+        private final int[] _tripEnds;
+
+        /**
+         * Connection at which to leave the service when boarding at each connection.
+         */
+        private final int[] _exits;
+
+        /**
+         * Profiles of the services leaving each station that go directly to the destination.
+         */
+        private final Profile[] _directProfiles;
+
+        /**
+         * Profiles of the other journeys leaving each station.
+         */
+        private final Profile[] _profiles;
+
+        /**
+         * Connections leaving the start station of services that reach the end station.
+         */
+        private final List<Integer> _directs = new ArrayList<>();
+
+        /**
+         * Connections leaving the start station from which the end station can be reached.
+         */
+        private final List<Integer> _candidates = new ArrayList<>();
+
+        /**
+         * Constructor.
+         *
+         * @param start station index.
+         * @param end station index.
+         * @param first connection to be considered.
+         */
+        Scan(int start, int end, int first) {
+            _start = start;
+            _end = end;
+            _first = first;
+            _tripArrivals = new int[_timetable.getServiceCount()];
+            _tripExits = new int[_timetable.getServiceCount()];
+            _tripEnds = new int[_timetable.getServiceCount()];
+            _exits = new int[_departures.length - first];
+            _directProfiles = new Profile[_timetable.getStationCount()];
+            _profiles = new Profile[_timetable.getStationCount()];
+            Arrays.fill(_tripArrivals, INFINITY);
+            Arrays.fill(_tripExits, -1);
+            Arrays.fill(_tripEnds, -1);
+        }
+
+        /**
+         * Scans the connections, from the latest to the first one to be considered.
+         */
+        void run() {
+            for (int c = _departures.length - 1; c >= _first; c--) {
+                int trip = _trips[c];
+                int destination = _destinations[c];
+
+                if (destination == _start) {
+                    // an itinerary can't go back to its starting station
+                    _tripArrivals[trip] = INFINITY;
+                    _tripExits[trip] = -1;
+                    _tripEnds[trip] = -1;
+                    continue;
+                }
+
+                int arrival = INFINITY;
+                int exit = -1;
+                if (destination == _end) {
+                    arrival = _arrivals[c];
+                    exit = c;
+                    _tripEnds[trip] = c;
+                } else {
+                    int transfer = transferArrival(destination, _arrivals[c]);
+                    if (transfer != INFINITY) {
+                        arrival = transfer;
+                        exit = c;
+                    }
+                }
+                if (_tripArrivals[trip] < arrival) {
+                    arrival = _tripArrivals[trip];
+                    exit = _tripExits[trip];
+                }
+
+                _tripArrivals[trip] = arrival;
+                _tripExits[trip] = exit;
+                _exits[c - _first] = exit;
+
+                if (arrival == INFINITY)
+                    continue;
+
+                int origin = _origins[c];
+                if (origin == _start) {
+                    _candidates.add(c);
+                    if (_tripEnds[trip] >= 0)
+                        _directs.add(c);
+                } else if (origin != _end) {
+                    profile(_profiles, origin).add(_departures[c], arrival, c);
+                    if (_tripEnds[trip] >= 0)
+                        profile(_directProfiles, origin).add(_departures[c], _arrivals[_tripEnds[trip]], c);
+                }
+            }
+
+            Collections.reverse(_candidates);
+            Collections.reverse(_directs);
+        }
+
+        /**
+         * Returns the profile of a station, creating it if needed.
+         */
+        private Profile profile(Profile[] profiles, int station) {
+            if (profiles[station] == null)
+                profiles[station] = new Profile();
+            return profiles[station];
+        }
+
+        /**
+         * Returns the arrival at the destination when transferring at a station after the given time:
+         * the earliest direct service, if there is one, or the earliest journey otherwise.
+         */
+        private int transferArrival(int station, int time) {
+            Profile profile = _directProfiles[station];
+            int entry = profile == null ? -1 : profile.find(time);
+            if (entry < 0) {
+                profile = _profiles[station];
+                entry = profile == null ? -1 : profile.find(time);
+            }
+            return entry < 0 ? INFINITY : profile._arrivals[entry];
+        }
+
+        /**
+         * Builds the itinerary that starts by boarding at the given connection.
+         *
+         * @param boarding connection leaving the start station.
+         * @param day of the itinerary.
+         * @return the itinerary, or null if no valid itinerary could be built.
+         */
+        Itinerary buildItinerary(int boarding, LocalDate day) {
+            List<Integer> hops = new ArrayList<>();
+            int connection = boarding;
+            int exit = _exits[connection - _first];
+            while (true) {
+                for (int c = connection; c != exit; c = _nextInTrip[c])
+                    hops.add(c);
+                hops.add(exit);
+
+                int station = _destinations[exit];
+                if (station == _end)
+                    break;
+                Profile direct = _directProfiles[station];
+                int entry = direct == null ? -1 : direct.find(_arrivals[exit]);
+                if (entry >= 0) {
+                    connection = direct._connections[entry];
+                    exit = connection;
+                    while (_destinations[exit] != _end)
+                        exit = _nextInTrip[exit];
+                } else {
+                    connection = _profiles[station]._connections[_profiles[station].find(_arrivals[exit])];
+                    exit = _exits[connection - _first];
+                }
+            }
+            List<Station> stops = new ArrayList<>();
+            List<Service> services = new ArrayList<>();
+            stops.add(_timetable.getStation(_origins[boarding]));
+            for (int hop : hops) {
+                stops.add(_timetable.getStation(_destinations[hop]));
+                services.add(_timetable.getService(_trips[hop]));
+            }
+            return Itinerary.fromStops(day, stops, services);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package mmt.core;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * The formats of the files with services, passengers and itineraries that can be imported and exported.
+ * Both have the same lines (SERVICE, PASSENGER and ITINERARY), with different separators.
+ *
+ * @author Grupo 38
+ * @author João Galinho (87667)
+ * @author Filipe Henriques (87653)
+ * @version 1.0
+ */
+enum DataFormat {
+
+    /**
+     * Fields separated by '|', without quotes.
+     */
+    PIPE('|', false),
+
+    /**
+     * Fields separated by ',', quoted (with '"') when they have separators or quotes.
+     */
+    CSV(',', true);
+
+    /**
+     * Separator of the fields.
+     */
+    private final char _separator;
+
+    /**
+     * Whether fields may be quoted.
+     */
+    private final boolean _quoted;
+
+    /**
+     * Constructor.
+     *
+     * @param separator of the fields.
+     * @param quoted true if fields may be quoted.
+     */
+    DataFormat(char separator, boolean quoted) {
+        _separator = separator;
+        _quoted = quoted;
+    }
+
+    /**
+     * Returns the separator of the fields.
+     *
+     * @return the separator.
+     */
+    char getSeparator() {
+        return _separator;
+    }
+
+    /**
+     * Returns true if fields may be quoted.
+     *
+     * @return true if fields may be quoted.
+     */
+    boolean isQuoted() {
+        return _quoted;
+    }
+
+    /**
+     * Returns the format of a file, by its name: CSV for ".csv" files, and PIPE for the others.
+     *
+     * @param filename of the file.
+     * @return the format of the file.
+     */
+    static DataFormat of(String filename) {
+        return filename.toLowerCase(Locale.ROOT).endsWith(".csv") ? CSV : PIPE;
+    }
+
+    /**
+     * Creates a tokenizer of lines in this format.
+     *
+     * @param buffer with the bytes to read, from its position to its limit (which must be at the start of a line).
+     * @param last true if the buffer ends at the end of the file.
+     * @param lineNumber of the line before the first one in the buffer.
+     * @return the tokenizer.
+     */
+    LineTokenizer tokenizer(ByteBuffer buffer, boolean last, int lineNumber) {
+        return new LineTokenizer(buffer, last, lineNumber, (byte) _separator, _quoted);
+    }
+}
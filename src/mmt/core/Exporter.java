@@ -0,0 +1,192 @@
+package mmt.core;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * Exporter writes the services, passengers and itineraries of a TrainCompany to a file that {@link Parser} can
+ * import: first the services (by id), then the passengers (by id, so they get the same ids) and then the
+ * itineraries of each passenger (in the order they were bought, so they are charged the same).
+ * The lines are written as the TrainCompany is traversed, and the passengers still in the snapshot are read
+ * one at a time, without being kept in memory.
+ * Stations without services, and the categories passengers had under previous loyalty policies, aren't exported.
+ *
+ * @author Grupo 38
+ * @author João Galinho (87667)
+ * @author Filipe Henriques (87653)
+ * @version 1.0
+ */
+class Exporter {
+
+    /**
+     * Size (in chars) of the buffer of the writer.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Format of the file.
+     */
+    private final DataFormat _format;
+
+    /**
+     * Line being written.
+     */
+    private final StringBuilder _line = new StringBuilder();
+
+    /**
+     * Constructor.
+     *
+     * @param format of the file.
+     */
+    Exporter(DataFormat format) {
+        _format = format;
+    }
+
+    /**
+     * Exports the services, passengers and itineraries of a TrainCompany to a file.
+     *
+     * @param company to export.
+     * @param filename of the file.
+     * @throws IOException if the file can't be written, or a name can't be written in the format (then, the
+     *                     file isn't changed).
+     */
+    void export(TrainCompany company, String filename) throws IOException {
+        Path temporary = Paths.get(filename + ".tmp");
+        try {
+            export(company, temporary);
+            Files.move(temporary, Paths.get(filename), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Writes the services, passengers and itineraries of a TrainCompany to a file.
+     */
+    private void export(TrainCompany company, Path file) throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file),
+                StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            for (Service service : company.getServices())
+                writeService(out, service);
+
+            Timetable timetable = company.getTimetable();
+            Snapshot.Passengers snapshot = company.getSnapshotPassengers();
+            int passengers = company.getPassengers().size();
+            for (int id = 0; id < passengers; id++) {
+                Passenger passenger = company.getLoadedPassenger(id);
+                startLine("PASSENGER");
+                addName(passenger != null ? passenger.getName() : snapshot.getName(id), false);
+                endLine(out);
+            }
+            for (int id = 0; id < passengers; id++) {
+                Passenger passenger = company.getLoadedPassenger(id);
+                if (passenger == null)
+                    passenger = snapshot.read(id, company.getLoyaltyPolicy());
+                for (Itinerary itinerary : passenger.getItineraries())
+                    writeItinerary(out, id, itinerary, timetable);
+            }
+        }
+    }
+
+    /**
+     * Writes a SERVICE line.
+     */
+    private void writeService(Writer out, Service service) throws IOException {
+        startLine("SERVICE");
+        addField().append(service.getId());
+        addField().append(service.getCost());
+        List<Station> stations = service.getStations();
+        for (int position = 0; position < stations.size(); position++) {
+            int minutes = service.getMinutes(position);
+            addField().append(minutes / 60 < 10 ? "0" : "").append(minutes / 60)
+                .append(minutes % 60 < 10 ? ":0" : ":").append(minutes % 60);
+            addName(stations.get(position).getName(), true);
+        }
+        endLine(out);
+    }
+
+    /**
+     * Writes an ITINERARY line.
+     */
+    private void writeItinerary(Writer out, int passengerId, Itinerary itinerary, Timetable timetable) throws IOException {
+        startLine("ITINERARY");
+        addField().append(passengerId);
+        addField().append(itinerary.getDay());
+        for (int trip = 0; trip < itinerary.getTripCount(); trip++) {
+            addField();
+            int start = _line.length();
+            _line.append(timetable.getService(itinerary.getServiceIndex(trip)).getId())
+                .append('/').append(timetable.getStation(itinerary.getStationIndex(trip)).getName())
+                .append('/').append(timetable.getStation(itinerary.getStationIndex(trip + 1)).getName());
+            quote(start);
+        }
+        endLine(out);
+    }
+
+    /**
+     * Starts a line with its type.
+     */
+    private void startLine(String type) {
+        _line.setLength(0);
+        _line.append(type);
+    }
+
+    /**
+     * Adds a separator to the line, before a field.
+     *
+     * @return the line.
+     */
+    private StringBuilder addField() {
+        return _line.append(_format.getSeparator());
+    }
+
+    /**
+     * Adds a name to the line, as a field.
+     *
+     * @param name to add.
+     * @param station true if the name is of a station (used in trips, which are separated by '/').
+     * @throws IOException if the name can't be imported back.
+     */
+    private void addName(String name, boolean station) throws IOException {
+        if (name.isEmpty() || name.indexOf('\n') >= 0 || name.indexOf('\r') >= 0
+            || (station && name.indexOf('/') >= 0) || (!_format.isQuoted() && name.indexOf(_format.getSeparator()) >= 0))
+            throw new IOException("can't export name: " + name);
+        addField();
+        int start = _line.length();
+        _line.append(name);
+        quote(start);
+    }
+
+    /**
+     * Quotes the last field of the line (from the given start), if the format needs it.
+     */
+    private void quote(int start) {
+        if (!_format.isQuoted())
+            return;
+        boolean needed = false;
+        for (int i = start; i < _line.length() && !needed; i++)
+            needed = _line.charAt(i) == _format.getSeparator() || _line.charAt(i) == '"';
+        if (!needed)
+            return;
+        for (int i = _line.length() - 1; i >= start; i--)
+            if (_line.charAt(i) == '"')
+                _line.insert(i, '"');
+        _line.insert(start, '"').append('"');
+    }
+
+    /**
+     * Writes the line.
+     */
+    private void endLine(Writer out) throws IOException {
+        _line.append('\n');
+        out.append(_line);
+    }
+}
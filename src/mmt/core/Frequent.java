@@ -1,7 +1,5 @@
 package mmt.core;
 
-import java.util.List;
-
 /**
  * One Category of the passengers (Frequent).
  *
@@ -41,16 +39,6 @@ enum Frequent implements Category {
      */
     @Override
     public Category getCategory(Passenger passenger) {
-        List<Itinerary> itineraries = passenger.getItineraries();
-        final double costs;
-        if (itineraries.size() < 10)
-            costs = itineraries.stream().mapToDouble(Itinerary::getCost).sum();
-        else
-            costs = itineraries.subList(itineraries.size() - 10, itineraries.size()).stream().mapToDouble(Itinerary::getCost).sum();
-        if (costs > 2500)
-            return Special.INSTANCE;
-        else if (costs <= 250)
-            return Normal.INSTANCE;
-        return Frequent.INSTANCE;
+        return passenger.getLoyaltyPolicy().getCategory(passenger.getRecentCost());
     }
 }
\ No newline at end of file
@@ -0,0 +1,438 @@
+package mmt.core;
+
+import mmt.core.exceptions.*;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * GtfsParser reads a timetable published as GTFS (a directory with stops.txt, stop_times.txt and, to import only
+ * the trips of a day, trips.txt and calendar.txt) and copies its trips to the TrainCompany, as services.
+ * stop_times.txt must be sorted by trip: it is streamed, and only the stops of the current trip are kept in memory.
+ * Stops with a parent station are imported as that station. Each trip gets the next free service id (in the
+ * order of stop_times.txt) and a cost proportional to its duration.
+ * Stops without times are ignored, and trips that can't be services (with less than two stops, that pass by a
+ * station twice, or that run past midnight) are skipped.
+ *
+ * @author Grupo 38
+ * @author João Galinho (87667)
+ * @author Filipe Henriques (87653)
+ * @version 1.0
+ */
+class GtfsParser {
+
+    /**
+     * Default cost of each minute of a trip.
+     */
+    static final double DEFAULT_COST_PER_MINUTE = 0.1;
+
+    /**
+     * Size (in bytes, as a power of 2) of each part of a file mapped in memory.
+     */
+    private static final int WINDOW_BITS = 30;
+
+    /**
+     * Minutes of a day.
+     */
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    /**
+     * Day whose trips are imported (or null to import all trips).
+     */
+    private final LocalDate _day;
+
+    /**
+     * Cost of each minute of a trip.
+     */
+    private final double _costPerMinute;
+
+    /**
+     * Bulk load of the TrainCompany for which the trips will be copied to.
+     */
+    private TrainCompany.BulkLoad _load;
+
+    /**
+     * Name of the station of each stop, by stop id.
+     */
+    private Map<String, String> _stopNames;
+
+    /**
+     * Ids of the trips of the day (or null to import all trips).
+     */
+    private Set<String> _activeTrips;
+
+    /**
+     * Ids of the trips already read from stop_times.txt.
+     */
+    private Set<String> _readTrips;
+
+    /**
+     * Id of the next service.
+     */
+    private int _nextServiceId;
+
+    /**
+     * Id of the trip being read (or null).
+     */
+    private String _trip;
+
+    /**
+     * Number of stops of the trip being read.
+     */
+    private int _stops;
+
+    /**
+     * Sequence number of each stop of the trip being read.
+     */
+    private int[] _sequences = new int[64];
+
+    /**
+     * Time (minutes since the start of the day) at each stop of the trip being read.
+     */
+    private int[] _minutes = new int[64];
+
+    /**
+     * Station name of each stop of the trip being read.
+     */
+    private String[] _names = new String[64];
+
+    /**
+     * Constructor.
+     *
+     * @param day whose trips are imported (or null to import all trips).
+     * @param costPerMinute cost of each minute of a trip.
+     */
+    GtfsParser(LocalDate day, double costPerMinute) {
+        _day = day;
+        _costPerMinute = costPerMinute;
+    }
+
+    /**
+     * Parses the trips of the GTFS directory to the TrainCompany, in a bulk load committed at the end.
+     *
+     * @param directory with the GTFS files.
+     * @param trainCompany to copy the trips to.
+     * @throws ImportFileException if any error is found while parsing the files (with the number of its line).
+     *                             The trips before it are imported.
+     */
+    void parseDirectory(String directory, TrainCompany trainCompany) throws ImportFileException {
+        Path path = Paths.get(directory);
+        _load = trainCompany.startBulkLoad();
+        _nextServiceId = 1;
+        for (Service service : trainCompany.getServices())
+            _nextServiceId = Math.max(_nextServiceId, service.getId() + 1);
+
+        try {
+            readStops(path.resolve("stops.txt"));
+            if (_day != null)
+                readTrips(path.resolve("trips.txt"), readCalendar(path.resolve("calendar.txt")));
+            _readTrips = new HashSet<>();
+            readFile(path.resolve("stop_times.txt"), 4, this::readStopTime,
+                "trip_id", "stop_id", "stop_sequence", "departure_time", "arrival_time");
+            addTrip();
+        } finally {
+            _load.commit();
+        }
+    }
+
+    /**
+     * Reads the names of the stations of the stops.
+     *
+     * @param file stops.txt.
+     * @throws ImportFileException if the file can't be read, or a parent station doesn't exist.
+     */
+    private void readStops(Path file) throws ImportFileException {
+        Map<String, String> names = new HashMap<>();
+        Map<String, String> parents = new HashMap<>();
+        readFile(file, 2, (line, columns) -> {
+            String stop = getString(line, columns[0]);
+            names.put(stop, getString(line, columns[1]));
+            String parent = getString(line, columns[2]);
+            if (!parent.isEmpty())
+                parents.put(stop, parent);
+        }, "stop_id", "stop_name", "parent_station");
+
+        _stopNames = new HashMap<>();
+        for (Map.Entry<String, String> stop : names.entrySet()) {
+            String parent = parents.get(stop.getKey());
+            if (parent != null && !names.containsKey(parent))
+                throw new ImportFileException(file.getFileName() + ": no such parent station " + parent);
+            _stopNames.put(stop.getKey(), parent == null ? stop.getValue() : names.get(parent));
+        }
+    }
+
+    /**
+     * Reads the ids of the calendars that run on the day.
+     *
+     * @param file calendar.txt.
+     * @return the ids of the calendars of the day.
+     * @throws ImportFileException if the file can't be read.
+     */
+    private Set<String> readCalendar(Path file) throws ImportFileException {
+        Set<String> services = new HashSet<>();
+        String weekday = _day.getDayOfWeek().name().toLowerCase(Locale.ROOT);
+        readFile(file, 4, (line, columns) -> {
+            if (getInt(line, columns[1]) == 1
+                && !_day.isBefore(getDate(line, columns[2])) && !_day.isAfter(getDate(line, columns[3])))
+                services.add(getString(line, columns[0]));
+        }, "service_id", weekday, "start_date", "end_date");
+        return services;
+    }
+
+    /**
+     * Reads the ids of the trips of the day.
+     *
+     * @param file trips.txt.
+     * @param services ids of the calendars of the day.
+     * @throws ImportFileException if the file can't be read.
+     */
+    private void readTrips(Path file, Set<String> services) throws ImportFileException {
+        _activeTrips = new HashSet<>();
+        readFile(file, 2, (line, columns) -> {
+            if (services.contains(getString(line, columns[1])))
+                _activeTrips.add(getString(line, columns[0]));
+        }, "trip_id", "service_id");
+    }
+
+    /**
+     * Reads a line of stop_times.txt, adding the previous trip when a new one starts.
+     *
+     * @param line tokenizer at the line.
+     * @param columns trip_id, stop_id, stop_sequence, departure_time and arrival_time.
+     * @throws ImportFileException if the line isn't valid, or the file isn't sorted by trip.
+     */
+    private void readStopTime(LineTokenizer line, int[] columns) throws ImportFileException {
+        String trip = getString(line, columns[0]);
+        if (!trip.equals(_trip)) {
+            addTrip();
+            if (!_readTrips.add(trip))
+                throw new ImportFileException("stop_times.txt isn't sorted by trip: " + trip);
+            _trip = trip;
+        }
+        if (_activeTrips != null && !_activeTrips.contains(trip))
+            return;
+
+        int minutes = getMinutes(line, columns[3]);
+        if (minutes < 0)
+            minutes = getMinutes(line, columns[4]);
+        if (minutes < 0)
+            return;
+        String stop = getString(line, columns[1]);
+        String name = _stopNames.get(stop);
+        if (name == null)
+            throw new ImportFileException("no such stop: " + stop);
+
+        if (_stops == _sequences.length) {
+            _sequences = Arrays.copyOf(_sequences, 2 * _stops);
+            _minutes = Arrays.copyOf(_minutes, 2 * _stops);
+            _names = Arrays.copyOf(_names, 2 * _stops);
+        }
+        _sequences[_stops] = getInt(line, columns[2]);
+        _minutes[_stops] = minutes;
+        _names[_stops] = name;
+        _stops++;
+    }
+
+    /**
+     * Adds the trip that was being read as a service, if it can be one.
+     *
+     * @throws ImportFileException if the service can't be added.
+     */
+    private void addTrip() throws ImportFileException {
+        int stops = _stops;
+        _stops = 0;
+        if (stops < 2)
+            return;
+
+        for (int i = 1; i < stops; i++)
+            for (int j = i; j > 0 && _sequences[j - 1] > _sequences[j]; j--) {
+                swap(_sequences, j);
+                swap(_minutes, j);
+                String name = _names[j];
+                _names[j] = _names[j - 1];
+                _names[j - 1] = name;
+            }
+
+        Set<String> distinct = new HashSet<>();
+        for (int i = 0; i < stops; i++)
+            if (_minutes[i] >= MINUTES_PER_DAY || (i > 0 && _minutes[i] < _minutes[i - 1]) || !distinct.add(_names[i]))
+                return;
+        Station[] stations = new Station[stops];
+        for (int i = 0; i < stops; i++)
+            stations[i] = _load.getOrAddStation(_names[i]);
+
+        double cost = Math.round(100 * _costPerMinute * (_minutes[stops - 1] - _minutes[0])) / 100.0;
+        try {
+            _load.addService(_nextServiceId++, cost, stations, Arrays.copyOf(_minutes, stops));
+        } catch (NonUniqueServiceIdException | NonUniqueStationAtServiceException e) {
+            throw new ImportFileException(e);
+        }
+    }
+
+    /**
+     * Swaps an element of an array with the previous one.
+     */
+    private static void swap(int[] values, int index) {
+        int value = values[index];
+        values[index] = values[index - 1];
+        values[index - 1] = value;
+    }
+
+    /**
+     * Reads the lines of a GTFS file, after its header.
+     *
+     * @param file to read.
+     * @param required number of columns (the first ones) that the file must have.
+     * @param rows reader of each line.
+     * @param names of the columns read (those that aren't in the file have index -1).
+     * @throws ImportFileException if the file can't be read, or any error is found while reading a line
+     *                             (with the number of the line).
+     */
+    private static void readFile(Path file, int required, Rows rows, String... names) throws ImportFileException {
+        String fileName = file.getFileName().toString();
+        if (!Files.exists(file))
+            throw new ImportFileException("missing " + fileName);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            int lineNumber = 0;
+            int[] columns = null;
+            while (position < size) {
+                long length = Math.min(1L << WINDOW_BITS, size - position);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                LineTokenizer line = new LineTokenizer(window, position + length == size, lineNumber, (byte) ',', true);
+                while (line.nextLine())
+                    try {
+                        if (columns == null)
+                            columns = getColumns(line, required, names);
+                        else if (line.getFieldCount() > 1 || line.getStart(0) < line.getEnd(0))
+                            rows.read(line, columns);
+                    } catch (ImportFileException | NumberFormatException | DateTimeException e) {
+                        throw new ImportFileException(line.getLineNumber(),
+                            new ImportFileException(fileName + ": " + e.getMessage(), e));
+                    }
+                if (line.getNextOffset() == 0)
+                    throw new ImportFileException(lineNumber + 1, new ImportFileException(fileName + ": line too long"));
+                position += Math.min(line.getNextOffset(), length);
+                lineNumber = line.getLineNumber();
+            }
+        } catch (IOException ioe) {
+            throw new ImportFileException(ioe);
+        }
+    }
+
+    /**
+     * Returns the indexes of the columns with the names given as parameter, from the header of a GTFS file.
+     *
+     * @param header tokenizer at the header.
+     * @param required number of columns (the first ones) that the file must have.
+     * @param names of the columns.
+     * @return the indexes of the columns (-1 for those that aren't in the file).
+     * @throws ImportFileException if a required column isn't in the file.
+     */
+    private static int[] getColumns(LineTokenizer header, int required, String... names) throws ImportFileException {
+        List<String> fields = new ArrayList<>();
+        for (int field = 0; field < header.getFieldCount(); field++)
+            fields.add(header.getString(field).trim());
+        if (!fields.isEmpty() && fields.get(0).startsWith("\uFEFF"))
+            fields.set(0, fields.get(0).substring(1));
+
+        int[] columns = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            columns[i] = fields.indexOf(names[i]);
+            if (columns[i] < 0 && i < required)
+                throw new ImportFileException("missing column " + names[i]);
+        }
+        return columns;
+    }
+
+    /**
+     * Returns a column of the current line as a string.
+     *
+     * @param line tokenizer at the line.
+     * @param column index (or -1).
+     * @return the column, or an empty string if the line doesn't have it.
+     */
+    private static String getString(LineTokenizer line, int column) {
+        return column < 0 || column >= line.getFieldCount() ? "" : line.getString(column);
+    }
+
+    /**
+     * Returns a column of the current line as an int.
+     *
+     * @param line tokenizer at the line.
+     * @param column index.
+     * @return the value of the column.
+     * @throws ImportFileException if the line doesn't have the column.
+     * @throws NumberFormatException if the column isn't an int.
+     */
+    private static int getInt(LineTokenizer line, int column) throws ImportFileException {
+        if (column >= line.getFieldCount())
+            throw new ImportFileException("missing value in column " + (column + 1));
+        return line.getInt(column);
+    }
+
+    /**
+     * Returns a column of the current line as a date, in the format YYYYMMDD.
+     *
+     * @param line tokenizer at the line.
+     * @param column index.
+     * @return the date.
+     * @throws ImportFileException if the line doesn't have the column.
+     * @throws DateTimeException if the column isn't a date.
+     */
+    private static LocalDate getDate(LineTokenizer line, int column) throws ImportFileException {
+        int date = getInt(line, column);
+        return LocalDate.of(date / 10000, date / 100 % 100, date % 100);
+    }
+
+    /**
+     * Returns a column of the current line as a time, in minutes since the start of the day (the seconds are
+     * ignored). GTFS times, in the format H:MM:SS, may be after midnight (24:00:00 or later).
+     *
+     * @param line tokenizer at the line.
+     * @param column index (or -1).
+     * @return the minutes of the time, or -1 if the line doesn't have it.
+     * @throws ImportFileException if the column isn't a time.
+     */
+    private static int getMinutes(LineTokenizer line, int column) throws ImportFileException {
+        if (column < 0 || column >= line.getFieldCount())
+            return -1;
+        int start = line.getStart(column);
+        int end = line.getEnd(column);
+        if (start == end)
+            return -1;
+        int first = line.indexOf((byte) ':', start, end);
+        int second = line.indexOf((byte) ':', first + 1, end);
+        if (second >= end)
+            throw new ImportFileException("invalid time: " + line.getString(column));
+        int minutes = line.getInt(first + 1, second);
+        if (minutes < 0 || minutes >= 60)
+            throw new ImportFileException("invalid time: " + line.getString(column));
+        return 60 * line.getInt(start, first) + minutes;
+    }
+
+    /**
+     * A reader of the lines of a GTFS file.
+     */
+    private interface Rows {
+
+        /**
+         * Reads a line.
+         *
+         * @param line tokenizer at the line.
+         * @param columns indexes of the columns read.
+         * @throws ImportFileException if the line isn't valid.
+         */
+        void read(LineTokenizer line, int[] columns) throws ImportFileException;
+    }
+}
@@ -1,15 +1,19 @@
 package mmt.core;
 
-import java.io.Serializable;
 import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * An Itinerary has a day and trips.
  * An Itinerary will be acquired by a passenger.
+ * Trips are not kept as separate objects, nor as references to their services and stations: the itinerary
+ * only keeps, packed in an array, the indexes of the service of each trip and of the stations where it starts
+ * and ends, which are resolved through a {@link Timetable} when the trips are needed.
+ * Since the trips are only resolved through a timetable, the cost and the duration of the itinerary are
+ * calculated when it is built.
  *
  * @author Grupo 38
  * @author João Galinho (87667)
@@ -17,45 +21,83 @@ import java.util.stream.Collectors;
  * @version 1.0
  */
 
-public class Itinerary implements Serializable {
+public class Itinerary {
+
+    /**
+     * Number of ints of each trip in _trips.
+     */
+    private static final int TRIP_SIZE = 3;
+
+    /**
+     * Day of the itinerary (epoch day).
+     */
+    private final int _day;
+
     /**
-     * Serial number for serialization.
+     * Trips of the itinerary: trip i has its service index in _trips[3 * i], and the indexes of the stations
+     * where it starts and ends in _trips[3 * i + 1] and _trips[3 * i + 2].
      */
-    private static final long serialVersionUID = -5362029440415892681L;
+    private final int[] _trips;
 
     /**
-     * Day of the itinerary.
+     * Total cost of the trips.
      */
-    private LocalDate _day;
+    private final double _cost;
 
     /**
-     * Trips that make the itinerary.
+     * Total duration of the trips, in minutes.
      */
-    private LinkedList<Trip> _trips;
+    private final int _minutes;
 
     /**
      * Constructor.
-     * Creates an empty Itinerary with a day.
+     * Creates an Itinerary with a day and its trips (built by a {@link Builder}).
      *
-     * @param day of the itinerary to create.
+     * @param day of the itinerary to create (epoch day).
+     * @param trips packed indexes of the services and stations of the trips.
+     * @param cost of the trips.
+     * @param minutes of duration of the trips.
      */
-    Itinerary(LocalDate day) {
+    private Itinerary(int day, int[] trips, double cost, int minutes) {
         _day = day;
-        _trips = new LinkedList<>();
+        _trips = trips;
+        _cost = cost;
+        _minutes = minutes;
     }
 
     /**
-     * Constructor.
-     * Creates an Itinerary with a day and a trip.
+     * Creates an Itinerary from a sequence of stops, removing any loops (stations visited more than once)
+     * by transferring at the first visit of the station instead.
      *
      * @param day of the itinerary to create.
-     * @param service of the trip to create the itinerary.
-     * @param start of the trip to create the itinerary.
-     * @param end of the trip to create the itinerary.
+     * @param stops stations visited by the itinerary, in order.
+     * @param services used between each pair of consecutive stops.
+     * @return the created itinerary, or null if its trips don't form a valid itinerary.
      */
-    Itinerary(LocalDate day, Service service, Station start, Station end) {
-        this(day);
-        addTripStart(service, start, end);
+    static Itinerary fromStops(LocalDate day, List<Station> stops, List<Service> services) {
+        List<Station> stations = new ArrayList<>(stops);
+        List<Service> hops = new ArrayList<>(services);
+        Map<Station, Integer> positions = new HashMap<>();
+        for (int i = 0; i < stations.size(); i++) {
+            Integer previous = positions.putIfAbsent(stations.get(i), i);
+            if (previous != null) {
+                stations.subList(previous + 1, i + 1).clear();
+                hops.subList(previous, i).clear();
+                positions.clear();
+                i = -1;
+            }
+        }
+
+        Builder builder = new Builder(day);
+        int tripStart = 0;
+        for (int i = 1; i <= hops.size(); i++) {
+            if (i == hops.size() || hops.get(i) != hops.get(tripStart)) {
+                if (!builder.addTripEnd(hops.get(tripStart), stations.get(tripStart), stations.get(i)))
+                    return null;
+                tripStart = i;
+            }
+        }
+        return builder.build();
     }
 
     /**
@@ -64,136 +106,90 @@ public class Itinerary implements Serializable {
      * @return the itinerary's _day.
      */
     public LocalDate getDay() {
-        return _day;
+        return LocalDate.ofEpochDay(_day);
     }
 
     /**
      * Returns the starting time of the Itinerary.
      *
+     * @param timetable where the services and stations of the itinerary are.
      * @return the Itinerary's starting time.
      */
-    LocalTime getStartTime() {
-        Trip startTrip = getFirstTrip();
-        return startTrip.getStart().getTime(startTrip.getService());
+    LocalTime getStartTime(Timetable timetable) {
+        return getTrip(0, timetable).getStartTime();
     }
 
     /**
      * Returns the ending time of the Itinerary.
      *
+     * @param timetable where the services and stations of the itinerary are.
      * @return the Itinerary's ending time.
      */
-    LocalTime getEndTime() {
-        Trip endTrip = getLastTrip();
-        return endTrip.getEnd().getTime(endTrip.getService());
+    LocalTime getEndTime(Timetable timetable) {
+        return getTrip(getTripCount() - 1, timetable).getEndTime();
     }
 
     /**
-     * Returns the first trip of _trips.
+     * Returns a trip of the itinerary.
      *
-     * @return _trips' first trip.
+     * @param index of the trip.
+     * @param timetable where the services and stations of the itinerary are.
+     * @return the trip with the given index.
      */
-    Trip getFirstTrip() {
-        return _trips.getFirst();
+    private Trip getTrip(int index, Timetable timetable) {
+        int trip = TRIP_SIZE * index;
+        return new Trip(timetable.getService(_trips[trip]), timetable.getStation(_trips[trip + 1]),
+            timetable.getStation(_trips[trip + 2]));
     }
 
     /**
-     * Returns the last trip of _trips.
+     * Returns the number of trips of the itinerary.
      *
-     * @return _trips' last trip.
+     * @return the number of trips.
      */
-    Trip getLastTrip() {
-        return _trips.getLast();
+    int getTripCount() {
+        return _trips.length / TRIP_SIZE;
     }
 
     /**
-     * Returns the list of trips.
+     * Returns the index of the service of a trip of the itinerary.
      *
-     * @return Unmodifiable List of _trips.
+     * @param trip index of the trip.
+     * @return the index of the service of the trip.
      */
-    List<Trip> getTrips() {
-        return Collections.unmodifiableList(_trips);
-    }
-
-    /**
-     * Adds a valid trip to the start of the list of trips if the established conditions are respected.
-     * A trip is valid if:
-     *      - service contains both start and end;
-     *      - has more than one station;
-     *      - start is before the end in the given service.
-     * The conditions are:
-     *      - the end of the trip has to be the same as the start of the itinerary;
-     *      - the end time of the trip has to be before the start time of the itinerary;
-     *      - the service of the trip can't be already present in the itinerary;
-     *      - none of the stations of the trip can be already present in the itinerary,
-     *      with the exception of the last station of the trip and the first station of the first trip of the itinerary.
-     *
-     * @param service of the trip to add.
-     * @param start of the trip to add.
-     * @param end of the trip to add.
-     * @return true if the trip was successfully added and false otherwise.
-     */
-    boolean addTripStart(Service service, Station start, Station end) {
-        List<Station> stations = service.getStations(start, end);
-        if (!stations.contains(start) || !stations.contains(end)
-            || stations.size() <= 1
-            || (!_trips.isEmpty() && (!end.equals(getFirstTrip().getStart()) || end.getTime(service).isAfter(getFirstTrip().getStartTime())))
-            || getAllServices().contains(service)
-            || stations.subList(0, stations.size() - 1).parallelStream().anyMatch(getAllStations()::contains))
-            return false;
-        _trips.addFirst(new Trip(service, start, end));
-        return true;
-    }
-
-    /**
-     * Adds a valid trip to the end of the list of trips if the established conditions are respected.
-     * A trip is valid if:
-     *      - service contains both start and end;
-     *      - has more than one station;
-     *      - start is before the end in the given service.
-     * The conditions are:
-     *      - the start of the trip has to be the same as the end of the itinerary;
-     *      - the start time of the trip has to be after the end time of the itinerary;
-     *      - the service of the trip can't be already present in the itinerary;
-     *      - none of the stations of the trip can be already present in the itinerary,
-     *      with the exception of the last station of the trip and the first station of the first trip of the itinerary.
-     *
-     * @param service of the trip to add.
-     * @param start of the trip to add.
-     * @param end of the trip to add.
-     * @return true if the trip was successfully added and false otherwise.
-     */
-    boolean addTripEnd(Service service, Station start, Station end) {
-        List<Station> stations = service.getStations(start, end);
-        if (!stations.contains(start) || !stations.contains(end)
-            || stations.indexOf(end) < stations.indexOf(start)
-            || stations.size() <= 1
-            || (!_trips.isEmpty() && (!start.equals(getLastTrip().getEnd()) || start.getTime(service).isBefore(getLastTrip().getEndTime())))
-            || getAllServices().contains(service)
-            || stations.subList(1, stations.size()).parallelStream().anyMatch(getAllStations()::contains))
-            return false;
-        _trips.addLast(new Trip(service, start, end));
-        return true;
+    int getServiceIndex(int trip) {
+        return _trips[TRIP_SIZE * trip];
     }
 
     /**
-     * Returns a list of all the services in one itinerary.
+     * Returns the index of the station of a stop of the itinerary: the start of the first trip, or the end of
+     * any trip.
      *
-     * @return all itinerary's services.
+     * @param stop index of the stop (from 0 to the number of trips).
+     * @return the index of the station of the stop.
      */
-    List<Service> getAllServices() {
-        return _trips.stream().map(Trip::getService).collect(Collectors.toList());
+    int getStationIndex(int stop) {
+        return stop == 0 ? _trips[1] : _trips[TRIP_SIZE * (stop - 1) + 2];
     }
 
     /**
-     * Returns a list of all the station in one itinerary.
+     * Returns the list of trips.
      *
-     * @return all itinerary's stations.
+     * @param timetable where the services and stations of the itinerary are.
+     * @return unmodifiable view of the itinerary's trips.
      */
-    List<Station> getAllStations() {
-        LinkedList<Station> stations = _trips.stream().flatMap(t -> t.getStationsExcludingFirst().stream()).collect(Collectors.toCollection(LinkedList::new));
-        if (!_trips.isEmpty())
-            stations.addFirst(getFirstTrip().getStart());
-        return stations;
+    List<Trip> getTrips(Timetable timetable) {
+        return new AbstractList<Trip>() {
+            @Override
+            public Trip get(int index) {
+                return getTrip(index, timetable);
+            }
+
+            @Override
+            public int size() {
+                return getTripCount();
+            }
+        };
     }
 
     /**
@@ -202,7 +198,7 @@ public class Itinerary implements Serializable {
      * @return the total cost of the itinerary.
      */
     public double getCost() {
-        return _trips.stream().mapToDouble(Trip::getCost).sum();
+        return _cost;
     }
 
     /**
@@ -211,21 +207,166 @@ public class Itinerary implements Serializable {
      * @return the total duration of the itinerary.
      */
     Duration getDuration() {
-        Trip firstTrip = getFirstTrip();
-        Trip lastTrip = getLastTrip();
-        return Duration.between(firstTrip.getStart().getTime(firstTrip.getService()), lastTrip.getEnd().getTime(lastTrip.getService()));
+        return Duration.ofMinutes(_minutes);
     }
 
     /**
      * Returns a string representing the itinerary.
      *
      * @param id that will be given to the itinerary.
+     * @param timetable where the services and stations of the itinerary are.
      * @return a string of trips to print.
      */
-    public String printItinerary(int id) {
-        StringBuilder string = new StringBuilder(String.format(Locale.US, "Itinerário %d para %s @ %.2f", id, _day, getCost()));
-        for (Trip trip : _trips)
+    String printItinerary(int id, Timetable timetable) {
+        StringBuilder string = new StringBuilder(String.format(Locale.US, "Itinerário %d para %s @ %.2f", id, getDay(), getCost()));
+        for (Trip trip : getTrips(timetable))
             string.append("\n").append(trip);
         return string.toString();
     }
-}
\ No newline at end of file
+
+    /**
+     * A Builder adds the trips of an itinerary one at a time, checking that they form a valid itinerary.
+     * The stations and services already used by the trips are only kept by the builder, and are cleared
+     * when it is reset to build another itinerary, so an itinerary only keeps its day and its trips.
+     */
+    static class Builder {
+
+        /**
+         * Day of the itinerary (epoch day).
+         */
+        private int _day;
+
+        /**
+         * Service of each trip added.
+         */
+        private Service[] _services = new Service[4];
+
+        /**
+         * Stations where the trips added start and end: trip i goes from _stops[i] to _stops[i + 1].
+         */
+        private Station[] _stops = new Station[5];
+
+        /**
+         * Number of trips added.
+         */
+        private int _trips;
+
+        /**
+         * Indexes of the stations visited by the trips added.
+         */
+        private final BitSet _visitedStations = new BitSet();
+
+        /**
+         * Indexes of the services used by the trips added.
+         */
+        private final BitSet _usedServices = new BitSet();
+
+        /**
+         * Constructor.
+         * Creates a Builder, to be reset with the day of each itinerary it builds.
+         */
+        Builder() {
+        }
+
+        /**
+         * Constructor.
+         * Creates a Builder of an itinerary without trips.
+         *
+         * @param day of the itinerary to build.
+         */
+        Builder(LocalDate day) {
+            reset(day);
+        }
+
+        /**
+         * Removes the trips added, to build another itinerary.
+         *
+         * @param day of the itinerary to build.
+         * @return this builder.
+         */
+        Builder reset(LocalDate day) {
+            _day = (int) day.toEpochDay();
+            _trips = 0;
+            _visitedStations.clear();
+            _usedServices.clear();
+            return this;
+        }
+
+        /**
+         * Adds a valid trip to the end of the list of trips if the established conditions are respected.
+         * A trip is valid if:
+         *      - service contains both start and end;
+         *      - has more than one station;
+         *      - start is before the end in the given service.
+         * The conditions are:
+         *      - the start of the trip has to be the same as the end of the itinerary;
+         *      - the start time of the trip has to be after the end time of the itinerary;
+         *      - the service of the trip can't be already present in the itinerary;
+         *      - none of the stations of the trip can be already present in the itinerary,
+         *      with the exception of the last station of the trip and the first station of the first trip of the itinerary.
+         *
+         * @param service of the trip to add.
+         * @param start of the trip to add.
+         * @param end of the trip to add.
+         * @return true if the trip was successfully added and false otherwise.
+         */
+        boolean addTripEnd(Service service, Station start, Station end) {
+            int startPosition = service.getPosition(start);
+            int endPosition = service.getPosition(end);
+            if (startPosition < 0 || endPosition <= startPosition)
+                return false;
+            if (_trips > 0) {
+                if (!start.equals(_stops[_trips]) || service.getMinutes(startPosition) < getMinutes(_trips))
+                    return false;
+            }
+            if (_usedServices.get(service.getIndex()))
+                return false;
+            List<Station> stations = service.getStations();
+            for (int position = startPosition + 1; position <= endPosition; position++)
+                if (_visitedStations.get(stations.get(position).getIndex()))
+                    return false;
+
+            if (_trips == _services.length) {
+                _services = Arrays.copyOf(_services, 2 * _trips);
+                _stops = Arrays.copyOf(_stops, 2 * _trips + 1);
+            }
+            _services[_trips] = service;
+            _stops[_trips] = start;
+            _stops[_trips + 1] = end;
+            _trips++;
+            for (int position = startPosition; position <= endPosition; position++)
+                _visitedStations.set(stations.get(position).getIndex());
+            _usedServices.set(service.getIndex());
+            return true;
+        }
+
+        /**
+         * Builds the itinerary with the trips added.
+         *
+         * @return the built itinerary.
+         */
+        Itinerary build() {
+            int[] trips = new int[TRIP_SIZE * _trips];
+            for (int i = 0; i < _trips; i++) {
+                trips[TRIP_SIZE * i] = _services[i].getIndex();
+                trips[TRIP_SIZE * i + 1] = _stops[i].getIndex();
+                trips[TRIP_SIZE * i + 2] = _stops[i + 1].getIndex();
+            }
+            double cost = IntStream.range(0, _trips).mapToDouble(i -> _services[i].getCost(_stops[i], _stops[i + 1])).sum();
+            int minutes = _trips == 0 ? 0 : getMinutes(_trips) - getMinutes(0);
+            return new Itinerary(_day, trips, cost, minutes);
+        }
+
+        /**
+         * Returns the time (minutes of the day) of the itinerary at one of its stops.
+         * The first stop is the start of the first trip, and any other stop is the end of a trip.
+         *
+         * @param stop index of the stop.
+         * @return the minutes of the day at the stop.
+         */
+        private int getMinutes(int stop) {
+            Service service = _services[stop == 0 ? 0 : stop - 1];
+            return service.getMinutes(service.getPosition(_stops[stop]));
+        }
+    }
+}
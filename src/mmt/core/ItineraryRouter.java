@@ -0,0 +1,27 @@
+package mmt.core;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.List;
+
+/**
+ * An interface class that represents a strategy to search the itineraries between two stations.
+ *
+ * @author Grupo 38
+ * @author João Galinho (87667)
+ * @author Filipe Henriques (87653)
+ * @version 1.0
+ */
+interface ItineraryRouter {
+
+    /**
+     * Returns the itineraries from start to end that depart after the given time.
+     *
+     * @param start Station from which the itineraries will start.
+     * @param end Station to which the itineraries will end.
+     * @param day of the itineraries.
+     * @param time after which the itineraries must depart.
+     * @return the itineraries from start to end, in no particular order.
+     */
+    List<Itinerary> search(Station start, Station end, LocalDate day, LocalTime time);
+}
@@ -0,0 +1,447 @@
+package mmt.core;
+
+import mmt.core.exceptions.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.BitSet;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The Journal of a snapshot has the changes made to a TrainCompany since the snapshot was written: each command
+ * that changes the TrainCompany appends its changes to the journal file (the name of the snapshot followed by
+ * ".journal") before it returns, so they aren't lost if the program stops, and opening the snapshot replays
+ * them on top of it.
+ * The journal file starts with a header (magic number, version, and the generation of the snapshot it follows)
+ * and is followed by segments, one for each command (or save) with changes, each with its length, its contents
+ * and their CRC-32.
+ * A segment has only what changed since the previous one:
+ * <ul>
+ *     <li>the loyalty policy, and whether the passengers were erased;</li>
+ *     <li>the new stations: the number of stations before them, the number of new ones, and their names;</li>
+ *     <li>the new and changed services: their number and, for each one, index, id, cost, number of stops,
+ *     and the station index and time of each stop;</li>
+ *     <li>the new and changed passengers: the number of passengers, the number of changed ones and, for each one,
+ *     id, name, value spent, number of itineraries already saved, and the new itineraries (as in the snapshot).</li>
+ * </ul>
+ * A segment that was not completely written (because of a crash) ends the journal.
+ * When a new snapshot is written while commands keep appending to the journal, the segments appended after the
+ * state it saves are moved to a new journal, which follows it (see {@link #prepareRebase}).
+ *
+ * @author Grupo 38
+ * @author João Galinho (87667)
+ * @author Filipe Henriques (87653)
+ * @version 1.0
+ */
+class Journal {
+
+    /**
+     * Magic number at the start of every journal ("MMTJ").
+     */
+    private static final int MAGIC = 0x4D4D544A;
+
+    /**
+     * Version of the format written.
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * Size of the header of the journal file.
+     */
+    private static final int HEADER_SIZE = 2 * Integer.BYTES + Long.BYTES;
+
+    /**
+     * This class only has static methods.
+     */
+    private Journal() {
+    }
+
+    /**
+     * Returns the name of the journal file of a snapshot.
+     *
+     * @param snapshot name of the snapshot file.
+     * @return the name of the journal file.
+     */
+    static String getFilename(String snapshot) {
+        return snapshot + ".journal";
+    }
+
+    /**
+     * Returns the name of the file of the journal that will follow the next snapshot.
+     *
+     * @param snapshot name of the snapshot file.
+     * @return the name of the next journal file.
+     */
+    private static String getNextFilename(String snapshot) {
+        return snapshot + ".journal.next";
+    }
+
+    /**
+     * Appends the changes made to a TrainCompany since they were last saved to the journal of a snapshot, forces
+     * them to the disk, and marks the TrainCompany as saved.
+     * A journal file that follows another snapshot is replaced.
+     *
+     * @param company whose changes are saved.
+     * @param snapshot name of the snapshot file.
+     * @param generation of the snapshot.
+     * @throws IOException if an I/O error occurs while writing.
+     */
+    static void append(TrainCompany company, String snapshot, long generation) throws IOException {
+        byte[] segment = writeSegment(company);
+        CRC32 crc = new CRC32();
+        crc.update(segment);
+        ByteBuffer buffer = ByteBuffer.allocate(2 * Integer.BYTES + segment.length);
+        buffer.putInt(segment.length).put(segment).putInt((int) crc.getValue()).flip();
+
+        try (FileChannel channel = FileChannel.open(Paths.get(getFilename(snapshot)), StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (!follows(channel, generation)) {
+                channel.truncate(0);
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).putLong(generation).flip();
+                while (header.hasRemaining())
+                    channel.write(header);
+            }
+            channel.position(channel.size());
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            channel.force(false);
+        }
+        company.markSaved();
+    }
+
+    /**
+     * Writes the changes made to a TrainCompany since its last save.
+     *
+     * @param company whose changes are written.
+     * @return the segment with the changes.
+     * @throws IOException if an I/O error occurs while writing.
+     */
+    private static byte[] writeSegment(TrainCompany company) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        LoyaltyPolicy policy = company.getLoyaltyPolicy();
+        out.writeInt(policy.getWindowSize());
+        out.writeDouble(policy.getFrequentThreshold());
+        out.writeDouble(policy.getSpecialThreshold());
+        out.writeBoolean(company.arePassengersErased());
+
+        Timetable timetable = company.getTimetable();
+        int saved = company.getSavedStationCount();
+        out.writeInt(saved);
+        out.writeInt(timetable.getStationCount() - saved);
+        for (int index = saved; index < timetable.getStationCount(); index++)
+            writeString(out, timetable.getStation(index).getName());
+
+        BitSet services = company.getChangedServices();
+        out.writeInt(services.cardinality());
+        for (int index = services.nextSetBit(0); index >= 0; index = services.nextSetBit(index + 1)) {
+            int first = timetable.getFirstStop(index);
+            int end = timetable.getEndStop(index);
+            out.writeInt(index);
+            out.writeInt(timetable.getService(index).getId());
+            out.writeDouble(timetable.getService(index).getCost());
+            out.writeInt(end - first);
+            for (int stop = first; stop < end; stop++)
+                out.writeInt(timetable.getStopStation(stop));
+            for (int stop = first; stop < end; stop++)
+                out.writeInt(timetable.getStopMinutes(stop));
+        }
+
+        BitSet passengers = company.getChangedPassengers();
+        out.writeInt(company.getPassengers().size());
+        out.writeInt(passengers.cardinality());
+        for (int id = passengers.nextSetBit(0); id >= 0; id = passengers.nextSetBit(id + 1)) {
+            Passenger passenger = company.getLoadedPassenger(id);
+            List<Itinerary> itineraries = passenger.getItineraries();
+            int kept = passenger.getSavedItineraryCount();
+            out.writeInt(id);
+            writeString(out, passenger.getName());
+            out.writeDouble(passenger.getSpent());
+            out.writeInt(kept);
+            out.writeInt(itineraries.size() - kept);
+            for (Itinerary itinerary : itineraries.subList(kept, itineraries.size())) {
+                out.writeInt((int) itinerary.getDay().toEpochDay());
+                out.writeInt(itinerary.getTripCount());
+                for (int trip = 0; trip < itinerary.getTripCount(); trip++)
+                    out.writeInt(itinerary.getServiceIndex(trip));
+                for (int stop = 0; stop <= itinerary.getTripCount(); stop++)
+                    out.writeInt(itinerary.getStationIndex(stop));
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Returns the size of the journal file of a snapshot.
+     *
+     * @param snapshot name of the snapshot file.
+     * @return the size of the journal file, or 0 if it doesn't exist.
+     */
+    static long getSize(String snapshot) {
+        File file = new File(getFilename(snapshot));
+        return file.exists() ? file.length() : 0;
+    }
+
+    /**
+     * Deletes the journal file of a snapshot (and the next one, if any).
+     *
+     * @param snapshot name of the snapshot file.
+     * @throws IOException if an I/O error occurs.
+     */
+    static void delete(String snapshot) throws IOException {
+        Files.deleteIfExists(Paths.get(getNextFilename(snapshot)));
+        Files.deleteIfExists(Paths.get(getFilename(snapshot)));
+    }
+
+    /**
+     * Truncates the journal file of a snapshot, removing the segments appended after the given size
+     * (the journal file is deleted if the size is 0).
+     *
+     * @param snapshot name of the snapshot file.
+     * @param size of the journal to keep.
+     * @throws IOException if an I/O error occurs.
+     */
+    static void truncate(String snapshot, long size) throws IOException {
+        if (size == 0)
+            delete(snapshot);
+        else if (getSize(snapshot) > size)
+            try (FileChannel channel = FileChannel.open(Paths.get(getFilename(snapshot)), StandardOpenOption.WRITE)) {
+                channel.truncate(size);
+                channel.force(false);
+            }
+    }
+
+    /**
+     * Writes the journal that will follow a new snapshot of the same file: a journal with the segments appended
+     * to the current one from a given size on (the changes made after the state saved by the new snapshot).
+     * The new journal only replaces the current one when the rebase is finished, after the new snapshot replaces
+     * the current one; if the program stops in between, the rebase is finished when the new snapshot is opened.
+     *
+     * @param snapshot name of the snapshot file.
+     * @param from size of the current journal when the state of the new snapshot was saved.
+     * @param generation of the new snapshot.
+     * @throws IOException if an I/O error occurs while writing.
+     */
+    static void prepareRebase(String snapshot, long from, long generation) throws IOException {
+        try (FileChannel current = FileChannel.open(Paths.get(getFilename(snapshot)), StandardOpenOption.READ);
+             FileChannel next = FileChannel.open(Paths.get(getNextFilename(snapshot)), StandardOpenOption.CREATE,
+                 StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(generation).flip();
+            while (header.hasRemaining())
+                next.write(header);
+            long position = from;
+            while (position < current.size())
+                position += current.transferTo(position, current.size() - position, next);
+            next.force(false);
+        }
+    }
+
+    /**
+     * Replaces the journal of a snapshot with the one written by {@link #prepareRebase}.
+     *
+     * @param snapshot name of the snapshot file.
+     * @throws IOException if an I/O error occurs.
+     */
+    static void finishRebase(String snapshot) throws IOException {
+        Path next = Paths.get(getNextFilename(snapshot));
+        Path file = Paths.get(getFilename(snapshot));
+        try {
+            Files.move(next, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(next, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Returns true if a journal file exists and has a valid header for the snapshot with the given generation.
+     */
+    private static boolean follows(Path file, long generation) throws IOException {
+        if (!Files.exists(file))
+            return false;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return follows(channel, generation);
+        }
+    }
+
+    /**
+     * Returns true if the journal file has a valid header for the snapshot with the given generation.
+     */
+    private static boolean follows(FileChannel channel, long generation) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining() && channel.read(header, header.position()) >= 0)
+            ;
+        header.flip();
+        return header.remaining() == HEADER_SIZE && header.getInt() == MAGIC && header.getInt() == VERSION
+            && header.getLong() == generation;
+    }
+
+    /**
+     * Replays the journal of a snapshot on the TrainCompany read from it, and marks it as saved.
+     * A journal file that follows another snapshot is ignored, and an incomplete segment at its end
+     * is removed. If the snapshot was replaced before its journal (see {@link #prepareRebase}), the rebase of
+     * the journal is finished first.
+     *
+     * @param snapshot name of the snapshot file.
+     * @param generation of the snapshot.
+     * @param company read from the snapshot.
+     * @throws IOException if an I/O error occurs while reading, or a segment can't be replayed.
+     */
+    static void replay(String snapshot, long generation, TrainCompany company) throws IOException {
+        File file = new File(getFilename(snapshot));
+        if (!follows(file.toPath(), generation) && follows(Paths.get(getNextFilename(snapshot)), generation))
+            finishRebase(snapshot);
+        if (!file.exists())
+            return;
+        long valid = HEADER_SIZE;
+        TrainCompany.BulkLoad load = company.startBulkLoad();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (file.length() < HEADER_SIZE || in.readInt() != MAGIC || in.readInt() != VERSION
+                || in.readLong() != generation)
+                return;
+            CRC32 crc = new CRC32();
+            while (true) {
+                byte[] segment;
+                try {
+                    int length = in.readInt();
+                    if (length <= 0 || length > file.length() - valid)
+                        break;
+                    segment = new byte[length];
+                    in.readFully(segment);
+                    crc.reset();
+                    crc.update(segment);
+                    if (in.readInt() != (int) crc.getValue())
+                        break;
+                } catch (EOFException e) {
+                    break;
+                }
+                try {
+                    readSegment(new DataInputStream(new ByteArrayInputStream(segment)), company, load);
+                } catch (NonUniqueServiceIdException | NonUniqueStationAtServiceException
+                    | NonUniquePassengerNameException | NoSuchPassengerIdException | NoSuchServiceIdException
+                    | IllegalArgumentException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+                    throw new IOException("invalid segment in journal " + file, e);
+                }
+                valid += 2 * Integer.BYTES + segment.length;
+            }
+        } finally {
+            load.commit();
+            company.markSaved();
+        }
+        if (valid < file.length())
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(valid);
+            }
+    }
+
+    /**
+     * Applies the changes of a segment to a TrainCompany, changing its stations and services through a bulk load.
+     */
+    private static void readSegment(DataInputStream in, TrainCompany company, TrainCompany.BulkLoad load) throws IOException,
+        NonUniqueServiceIdException, NonUniqueStationAtServiceException, NonUniquePassengerNameException,
+        NoSuchPassengerIdException, NoSuchServiceIdException {
+        company.setLoyaltyPolicy(new LoyaltyPolicy(in.readInt(), in.readDouble(), in.readDouble()));
+        if (in.readBoolean())
+            company.erasePassengers();
+
+        if (in.readInt() != company.getStations().size())
+            throw new IOException("journal doesn't follow the stations of the snapshot");
+        int newStations = in.readInt();
+        for (int i = 0; i < newStations; i++)
+            load.getOrAddStation(readString(in));
+        Station[] stations = company.getStations().toArray(new Station[0]);
+
+        int changedServices = in.readInt();
+        for (int i = 0; i < changedServices; i++) {
+            int index = in.readInt();
+            int id = in.readInt();
+            double cost = in.readDouble();
+            Service service = index < company.getServices().size() ? company.getServiceById(id)
+                : load.addService(id, cost);
+            if (service.getIndex() != index)
+                throw new IOException("journal doesn't follow the services of the snapshot");
+            int[] stops = new int[in.readInt()];
+            for (int stop = 0; stop < stops.length; stop++)
+                stops[stop] = in.readInt();
+            for (int stop : stops) {
+                LocalTime time = Timetable.toTime(in.readInt());
+                if (service.getPosition(stations[stop]) < 0)
+                    load.addStation(service, stations[stop], time);
+            }
+        }
+        Service[] services = new Service[company.getServices().size()];
+        for (Service service : company.getServices())
+            services[service.getIndex()] = service;
+
+        int passengers = in.readInt();
+        int changedPassengers = in.readInt();
+        Itinerary.Builder builder = new Itinerary.Builder();
+        for (int i = 0; i < changedPassengers; i++) {
+            int id = in.readInt();
+            String name = readString(in);
+            Passenger passenger = id == company.getPassengers().size() ? company.addPassenger(name)
+                : company.getPassengerById(id);
+            company.restorePassengerName(id, name);
+            passenger.restoreSpent(in.readDouble());
+            if (in.readInt() != passenger.getItineraries().size())
+                throw new IOException("journal doesn't follow the itineraries of passenger " + id);
+            int itineraries = in.readInt();
+            for (int itinerary = 0; itinerary < itineraries; itinerary++)
+                passenger.restoreItinerary(readItinerary(in, services, stations, builder));
+            passenger.markSaved();
+        }
+        if (passengers != company.getPassengers().size())
+            throw new IOException("journal doesn't follow the passengers of the snapshot");
+    }
+
+    /**
+     * Reads an itinerary whose services and stations are identified by their indexes.
+     */
+    private static Itinerary readItinerary(DataInputStream in, Service[] services, Station[] stations, Itinerary.Builder builder)
+        throws IOException {
+        builder.reset(LocalDate.ofEpochDay(in.readInt()));
+        Service[] trips = new Service[in.readInt()];
+        for (int trip = 0; trip < trips.length; trip++)
+            trips[trip] = services[in.readInt()];
+        Station start = stations[in.readInt()];
+        for (Service trip : trips) {
+            Station end = stations[in.readInt()];
+            if (!builder.addTripEnd(trip, start, end))
+                throw new IOException("invalid itinerary in journal");
+            start = end;
+        }
+        return builder.build();
+    }
+
+    /**
+     * Writes a string, as its length and its UTF-8 bytes.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string, written as its length and its UTF-8 bytes.
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,438 @@
+package mmt.core;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+
+/**
+ * A LineTokenizer reads the lines of an import file from a buffer of UTF-8 bytes, in a single pass, splitting each
+ * one into its fields (separated by '|', or by another separator, such as the ',' of CSV files).
+ * CSV fields may also be quoted (with '"', and '""' inside for a quote), so they can have separators.
+ * Fields are read directly from the buffer: numbers, times (HH:MM) and dates (YYYY-MM-DD) are decoded without
+ * creating strings, and only names are decoded as strings.
+ * As with {@link String#split}, the empty fields at the end of a line are ignored.
+ *
+ * @author Grupo 38
+ * @author João Galinho (87667)
+ * @author Filipe Henriques (87653)
+ * @version 1.0
+ */
+class LineTokenizer {
+
+    /**
+     * Separator of the fields of a line.
+     */
+    static final byte SEPARATOR = '|';
+
+    /**
+     * Maximum number of decimal digits in a number decoded without {@link Double#parseDouble}.
+     */
+    private static final int MAX_FAST_DIGITS = 15;
+
+    /**
+     * Powers of ten that are exact doubles.
+     */
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15
+    };
+
+    /**
+     * Separator of the fields of the lines being read.
+     */
+    private final byte _separator;
+
+    /**
+     * Whether fields may be quoted.
+     */
+    private final boolean _quoted;
+
+    /**
+     * Bytes being read (from its position to its limit).
+     */
+    private final ByteBuffer _buffer;
+
+    /**
+     * Whether the buffer ends at the end of the file (so its last line doesn't need a line terminator).
+     */
+    private final boolean _last;
+
+    /**
+     * Offset of the next line.
+     */
+    private int _next;
+
+    /**
+     * Number of the current line in the file.
+     */
+    private int _lineNumber;
+
+    /**
+     * Start of each field of the current line.
+     */
+    private int[] _starts = new int[16];
+
+    /**
+     * End (exclusive) of each field of the current line.
+     */
+    private int[] _ends = new int[16];
+
+    /**
+     * Number of fields of the current line.
+     */
+    private int _fields;
+
+    /**
+     * Constructor.
+     *
+     * @param buffer with the bytes to read, from its position to its limit (which must be at the start of a line).
+     * @param last true if the buffer ends at the end of the file.
+     * @param lineNumber of the line before the first one in the buffer.
+     */
+    LineTokenizer(ByteBuffer buffer, boolean last, int lineNumber) {
+        this(buffer, last, lineNumber, SEPARATOR, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param buffer with the bytes to read, from its position to its limit (which must be at the start of a line).
+     * @param last true if the buffer ends at the end of the file.
+     * @param lineNumber of the line before the first one in the buffer.
+     * @param separator of the fields.
+     * @param quoted true if fields may be quoted.
+     */
+    LineTokenizer(ByteBuffer buffer, boolean last, int lineNumber, byte separator, boolean quoted) {
+        _separator = separator;
+        _quoted = quoted;
+        _buffer = buffer;
+        _last = last;
+        _next = buffer.position();
+        _lineNumber = lineNumber;
+    }
+
+    /**
+     * Advances to the next line, splitting it into fields.
+     *
+     * @return false if there are no more complete lines.
+     */
+    boolean nextLine() {
+        int limit = _buffer.limit();
+        int start = _next;
+        if (start >= limit)
+            return false;
+
+        int end = start;
+        _fields = 0;
+        int fieldStart = start;
+        int quotedEnd = -1;
+        byte b = 0;
+        for (; end < limit; end++) {
+            b = _buffer.get(end);
+            if (b == '\n' || b == '\r')
+                break;
+            if (b == _separator) {
+                addField(fieldStart, quotedEnd < 0 ? end : quotedEnd);
+                fieldStart = end + 1;
+                quotedEnd = -1;
+            } else if (b == '"' && _quoted && end == fieldStart) {
+                fieldStart++;
+                end = closingQuote(fieldStart, limit);
+                quotedEnd = end;
+            }
+        }
+        if (end >= limit && !_last)
+            return false;
+        end = Math.min(end, limit);
+        addField(fieldStart, quotedEnd < 0 ? end : quotedEnd);
+
+        _next = end + 1;
+        if (b == '\r' && _next < limit && _buffer.get(_next) == '\n')
+            _next++;
+        while (_fields > 1 && _starts[_fields - 1] == _ends[_fields - 1])
+            _fields--;
+        _lineNumber++;
+        return true;
+    }
+
+    /**
+     * Returns the offset of the quote that closes a quoted field, or the limit if there is none.
+     */
+    private int closingQuote(int position, int limit) {
+        while (position < limit) {
+            if (_buffer.get(position) != '"')
+                position++;
+            else if (position + 1 < limit && _buffer.get(position + 1) == '"')
+                position += 2;
+            else
+                return position;
+        }
+        return limit;
+    }
+
+    /**
+     * Adds a field to the current line.
+     */
+    private void addField(int start, int end) {
+        if (_fields == _starts.length) {
+            _starts = Arrays.copyOf(_starts, 2 * _fields);
+            _ends = Arrays.copyOf(_ends, 2 * _fields);
+        }
+        _starts[_fields] = start;
+        _ends[_fields] = end;
+        _fields++;
+    }
+
+    /**
+     * Returns the offset (in the buffer) of the first line not read yet.
+     *
+     * @return the offset of the next line.
+     */
+    int getNextOffset() {
+        return _next;
+    }
+
+    /**
+     * Returns the number of the current line in the file.
+     *
+     * @return the line number.
+     */
+    int getLineNumber() {
+        return _lineNumber;
+    }
+
+    /**
+     * Returns the number of fields of the current line.
+     *
+     * @return the number of fields.
+     */
+    int getFieldCount() {
+        return _fields;
+    }
+
+    /**
+     * Returns the start of a field of the current line.
+     *
+     * @param field index.
+     * @return the offset of the field's first byte.
+     */
+    int getStart(int field) {
+        return _starts[field];
+    }
+
+    /**
+     * Returns the end of a field of the current line.
+     *
+     * @param field index.
+     * @return the offset after the field's last byte.
+     */
+    int getEnd(int field) {
+        return _ends[field];
+    }
+
+    /**
+     * Returns the offset of the first occurrence of a byte in a range, or the end of the range.
+     *
+     * @param value to search for.
+     * @param start of the range.
+     * @param end of the range (exclusive).
+     * @return the offset of the byte, or end if it isn't in the range.
+     */
+    int indexOf(byte value, int start, int end) {
+        while (start < end && _buffer.get(start) != value)
+            start++;
+        return start;
+    }
+
+    /**
+     * Returns true if a field has the given ASCII text.
+     *
+     * @param field index.
+     * @param text to compare.
+     * @return true if the field is equal to the text.
+     */
+    boolean fieldEquals(int field, String text) {
+        int start = _starts[field];
+        if (_ends[field] - start != text.length())
+            return false;
+        for (int i = 0; i < text.length(); i++)
+            if (_buffer.get(start + i) != text.charAt(i))
+                return false;
+        return true;
+    }
+
+    /**
+     * Returns a field of the current line as a string.
+     *
+     * @param field index.
+     * @return the field decoded from UTF-8.
+     */
+    String getString(int field) {
+        return getString(_starts[field], _ends[field]);
+    }
+
+    /**
+     * Returns a range of bytes as a string.
+     *
+     * @param start of the range.
+     * @param end of the range (exclusive).
+     * @return the bytes decoded from UTF-8 (without the quotes of quoted fields).
+     */
+    String getString(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        _buffer.get(start, bytes);
+        String string = new String(bytes, StandardCharsets.UTF_8);
+        return _quoted && string.indexOf('"') >= 0 ? string.replace("\"\"", "\"") : string;
+    }
+
+    /**
+     * Returns a field of the current line as a name interned in a table.
+     *
+     * @param field index.
+     * @param names table where the name is interned.
+     * @return the name in the table.
+     */
+    String getName(int field, NameTable names) {
+        return getName(_starts[field], _ends[field], names);
+    }
+
+    /**
+     * Returns a range of bytes as a name interned in a table.
+     * The string is only created if the name isn't in the table yet (or has escaped quotes).
+     *
+     * @param start of the range.
+     * @param end of the range (exclusive).
+     * @param names table where the name is interned.
+     * @return the name in the table.
+     */
+    String getName(int start, int end, NameTable names) {
+        if (_quoted && indexOf((byte) '"', start, end) < end)
+            return names.intern(getString(start, end));
+        return names.intern(_buffer, start, end);
+    }
+
+    /**
+     * Returns a field of the current line as an int.
+     *
+     * @param field index.
+     * @return the value of the field.
+     * @throws NumberFormatException if the field isn't an int.
+     */
+    int getInt(int field) {
+        return getInt(_starts[field], _ends[field]);
+    }
+
+    /**
+     * Returns a range of bytes as an int.
+     *
+     * @param start of the range.
+     * @param end of the range (exclusive).
+     * @return the value of the bytes.
+     * @throws NumberFormatException if the bytes aren't an int.
+     */
+    int getInt(int start, int end) {
+        int position = start;
+        boolean negative = position < end && _buffer.get(position) == '-';
+        if (negative)
+            position++;
+        if (position == end || end - position > 9)
+            return Integer.parseInt(getString(start, end));
+        int value = 0;
+        for (; position < end; position++) {
+            int digit = _buffer.get(position) - '0';
+            if (digit < 0 || digit > 9)
+                return Integer.parseInt(getString(start, end));
+            value = 10 * value + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Returns a field of the current line as a double.
+     * Plain decimal numbers (such as 12.25) are decoded directly, and exactly as {@link Double#parseDouble} does.
+     *
+     * @param field index.
+     * @return the value of the field.
+     * @throws NumberFormatException if the field isn't a number.
+     */
+    double getDouble(int field) {
+        int start = _starts[field];
+        int end = _ends[field];
+        long mantissa = 0;
+        int digits = 0;
+        int decimals = -1;
+        for (int position = start; position < end; position++) {
+            byte b = _buffer.get(position);
+            if (b == '.' && decimals < 0)
+                decimals = 0;
+            else if (b >= '0' && b <= '9') {
+                mantissa = 10 * mantissa + (b - '0');
+                digits++;
+                if (decimals >= 0)
+                    decimals++;
+            } else
+                return Double.parseDouble(getString(start, end));
+        }
+        if (digits == 0 || digits > MAX_FAST_DIGITS)
+            return Double.parseDouble(getString(start, end));
+        return decimals > 0 ? mantissa / POWERS_OF_TEN[decimals] : mantissa;
+    }
+
+    /**
+     * Returns a field of the current line as a time, in minutes of the day.
+     * Times in the format HH:MM are decoded directly, and other formats accepted by {@link LocalTime#parse} too.
+     *
+     * @param field index.
+     * @return the minutes of the day of the time.
+     * @throws DateTimeParseException if the field isn't a time.
+     */
+    int getMinutes(int field) {
+        int start = _starts[field];
+        if (_ends[field] - start == 5 && _buffer.get(start + 2) == ':') {
+            int hours = twoDigits(start);
+            int minutes = twoDigits(start + 3);
+            if (hours >= 0 && hours < 24 && minutes >= 0 && minutes < 60)
+                return 60 * hours + minutes;
+        }
+        return Timetable.toMinutes(LocalTime.parse(getString(field)));
+    }
+
+    /**
+     * Returns a field of the current line as a date.
+     * Dates in the format YYYY-MM-DD are decoded directly, and other formats accepted by {@link LocalDate#parse} too.
+     *
+     * @param field index.
+     * @return the date.
+     * @throws DateTimeParseException if the field isn't a date.
+     */
+    LocalDate getDate(int field) {
+        int start = _starts[field];
+        if (_ends[field] - start == 10 && _buffer.get(start + 4) == '-' && _buffer.get(start + 7) == '-') {
+            int century = twoDigits(start);
+            int year = twoDigits(start + 2);
+            int month = twoDigits(start + 5);
+            int day = twoDigits(start + 8);
+            if (century >= 0 && year >= 0 && month >= 0 && day >= 0)
+                try {
+                    return LocalDate.of(100 * century + year, month, day);
+                } catch (DateTimeException e) {
+                    // invalid date: reported by parse
+                }
+        }
+        return LocalDate.parse(getString(field));
+    }
+
+    /**
+     * Returns the value of two decimal digits, or -1 if they aren't digits.
+     */
+    private int twoDigits(int position) {
+        int tens = _buffer.get(position) - '0';
+        int units = _buffer.get(position + 1) - '0';
+        if (tens < 0 || tens > 9 || units < 0 || units > 9)
+            return -1;
+        return 10 * tens + units;
+    }
+}
@@ -0,0 +1,92 @@
+package mmt.core;
+
+/**
+ * A LoyaltyPolicy defines the category of the passengers of a TrainCompany from the cost
+ * of their most recent itineraries: how many itineraries are considered, and how much they
+ * must cost for the passenger to be frequent or special.
+ *
+ * @author Grupo 38
+ * @author João Galinho (87667)
+ * @author Filipe Henriques (87653)
+ * @version 1.0
+ */
+public class LoyaltyPolicy {
+
+    /**
+     * Policy of the project's statement: the last 10 itineraries, frequent above 250 and special above 2500.
+     */
+    public static final LoyaltyPolicy DEFAULT = new LoyaltyPolicy(10, 250, 2500);
+
+    /**
+     * Number of recent itineraries considered.
+     */
+    private final int _windowSize;
+
+    /**
+     * Cost of the recent itineraries above which a passenger is frequent.
+     */
+    private final double _frequentThreshold;
+
+    /**
+     * Cost of the recent itineraries above which a passenger is special.
+     */
+    private final double _specialThreshold;
+
+    /**
+     * Constructor.
+     * Creates a LoyaltyPolicy with all its attributes.
+     *
+     * @param windowSize number of recent itineraries considered.
+     * @param frequentThreshold cost above which a passenger is frequent.
+     * @param specialThreshold cost above which a passenger is special.
+     * @throws IllegalArgumentException if the window size isn't positive.
+     */
+    public LoyaltyPolicy(int windowSize, double frequentThreshold, double specialThreshold) {
+        if (windowSize <= 0)
+            throw new IllegalArgumentException("window size must be positive: " + windowSize);
+        _windowSize = windowSize;
+        _frequentThreshold = frequentThreshold;
+        _specialThreshold = specialThreshold;
+    }
+
+    /**
+     * Returns the number of recent itineraries considered.
+     *
+     * @return the window size.
+     */
+    public int getWindowSize() {
+        return _windowSize;
+    }
+
+    /**
+     * Returns the cost of the recent itineraries above which a passenger is frequent.
+     *
+     * @return the frequent threshold.
+     */
+    double getFrequentThreshold() {
+        return _frequentThreshold;
+    }
+
+    /**
+     * Returns the cost of the recent itineraries above which a passenger is special.
+     *
+     * @return the special threshold.
+     */
+    double getSpecialThreshold() {
+        return _specialThreshold;
+    }
+
+    /**
+     * Returns the category of a passenger whose recent itineraries cost the value given as parameter.
+     *
+     * @param recentCost cost of the passenger's recent itineraries.
+     * @return the category of the passenger.
+     */
+    Category getCategory(double recentCost) {
+        if (recentCost > _specialThreshold)
+            return Special.INSTANCE;
+        else if (recentCost <= _frequentThreshold)
+            return Normal.INSTANCE;
+        return Frequent.INSTANCE;
+    }
+}
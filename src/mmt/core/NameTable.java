@@ -0,0 +1,186 @@
+package mmt.core;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A NameTable interns the names of the stations of a TrainCompany, so each name is only one string.
+ * Names are never removed, so it only keeps names that last as long as the TrainCompany.
+ * Names can be looked up by their UTF-8 bytes (as read from an import file), without creating a string when
+ * they are already in the table.
+ * Lookups can be done by any thread while names are added: the entries are immutable, the table is published
+ * through a volatile field, and adding is synchronized.
+ *
+ * @author Grupo 38
+ * @author João Galinho (87667)
+ * @author Filipe Henriques (87653)
+ * @version 1.0
+ */
+class NameTable {
+
+    /**
+     * Initial capacity of the table (a power of 2).
+     */
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * Entries of the table, by hash (open addressing, with linear probing), at most half full.
+     */
+    private volatile Entry[] _entries = new Entry[INITIAL_CAPACITY];
+
+    /**
+     * Number of names in the table.
+     */
+    private int _size;
+
+    /**
+     * Returns the name in the table equal to the given one, adding it if there is none.
+     *
+     * @param name to intern.
+     * @return the name in the table.
+     */
+    String intern(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(ByteBuffer.wrap(bytes), 0, bytes.length);
+        Entry[] entries = _entries;
+        for (int i = hash & (entries.length - 1); entries[i] != null; i = (i + 1) & (entries.length - 1))
+            if (entries[i]._hash == hash && entries[i]._name.equals(name))
+                return entries[i]._name;
+        return add(name, hash, null, 0, 0);
+    }
+
+    /**
+     * Returns the name in the table with the given UTF-8 bytes, adding it if there is none.
+     *
+     * @param buffer with the bytes.
+     * @param start of the bytes.
+     * @param end of the bytes (exclusive).
+     * @return the name in the table.
+     */
+    String intern(ByteBuffer buffer, int start, int end) {
+        int hash = hash(buffer, start, end);
+        Entry[] entries = _entries;
+        for (int i = hash & (entries.length - 1); entries[i] != null; i = (i + 1) & (entries.length - 1))
+            if (entries[i]._hash == hash && matches(entries[i]._name, buffer, start, end))
+                return entries[i]._name;
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return add(new String(bytes, StandardCharsets.UTF_8), hash, buffer, start, end);
+    }
+
+    /**
+     * Adds a name to the table, unless another thread added it first.
+     * A name read from bytes that aren't valid UTF-8 isn't added (its bytes wouldn't find it).
+     *
+     * @param name to add.
+     * @param hash of the UTF-8 bytes of the name.
+     * @param buffer with the bytes the name was read from (or null).
+     * @param start of the bytes.
+     * @param end of the bytes (exclusive).
+     * @return the name in the table.
+     */
+    private synchronized String add(String name, int hash, ByteBuffer buffer, int start, int end) {
+        Entry[] entries = _entries;
+        int i = hash & (entries.length - 1);
+        for (; entries[i] != null; i = (i + 1) & (entries.length - 1))
+            if (entries[i]._hash == hash && entries[i]._name.equals(name))
+                return entries[i]._name;
+        if (buffer != null && !matches(name, buffer, start, end))
+            return name;
+
+        if (2 * (_size + 1) > entries.length) {
+            entries = resize(entries);
+            for (i = hash & (entries.length - 1); entries[i] != null; i = (i + 1) & (entries.length - 1))
+                ;
+        }
+        entries[i] = new Entry(name, hash);
+        _size++;
+        _entries = entries;
+        return name;
+    }
+
+    /**
+     * Returns a copy of the entries with twice the capacity.
+     */
+    private static Entry[] resize(Entry[] entries) {
+        Entry[] resized = new Entry[2 * entries.length];
+        for (Entry entry : entries)
+            if (entry != null) {
+                int i = entry._hash & (resized.length - 1);
+                while (resized[i] != null)
+                    i = (i + 1) & (resized.length - 1);
+                resized[i] = entry;
+            }
+        return resized;
+    }
+
+    /**
+     * Returns the hash of a range of bytes.
+     */
+    private static int hash(ByteBuffer buffer, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++)
+            hash = 31 * hash + buffer.get(i);
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Returns true if a name is encoded in UTF-8 as a range of bytes.
+     */
+    private static boolean matches(String name, ByteBuffer buffer, int start, int end) {
+        int position = start;
+        for (int i = 0; i < name.length(); i++) {
+            int c = name.charAt(i);
+            if (c < 0x80) {
+                if (position >= end || buffer.get(position++) != c)
+                    return false;
+                continue;
+            }
+            int bytes;
+            if (c < 0x800)
+                bytes = 2;
+            else if (Character.isHighSurrogate((char) c) && i + 1 < name.length()
+                && Character.isLowSurrogate(name.charAt(i + 1))) {
+                c = Character.toCodePoint((char) c, name.charAt(++i));
+                bytes = 4;
+            } else
+                bytes = 3;
+            if (end - position < bytes)
+                return false;
+            int lead = bytes == 2 ? 0xC0 : bytes == 3 ? 0xE0 : 0xF0;
+            if ((buffer.get(position++) & 0xFF) != (lead | c >> 6 * (bytes - 1)))
+                return false;
+            for (int shift = 6 * (bytes - 2); shift >= 0; shift -= 6)
+                if ((buffer.get(position++) & 0xFF) != (0x80 | (c >> shift & 0x3F)))
+                    return false;
+        }
+        return position == end;
+    }
+
+    /**
+     * A name in the table, with the hash of its UTF-8 bytes.
+     */
+    private static class Entry {
+
+        /**
+         * Name.
+         */
+        private final String _name;
+
+        /**
+         * Hash of the UTF-8 bytes of the name.
+         */
+        private final int _hash;
+
+        /**
+         * Constructor.
+         *
+         * @param name of the entry.
+         * @param hash of the UTF-8 bytes of the name.
+         */
+        Entry(String name, int hash) {
+            _name = name;
+            _hash = hash;
+        }
+    }
+}
@@ -2,15 +2,28 @@ package mmt.core;
 
 import mmt.core.exceptions.*;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
 import java.time.LocalDate;
-import java.time.LocalTime;
-import java.util.LinkedList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * Parser reads the file and copies the data to the TrainCompany.
+ * Fields are separated by '|', or by ',' (possibly quoted) in ".csv" files (see {@link DataFormat}).
+ * The file is mapped in memory, in windows of up to 2^WINDOW_BITS bytes, and each line is decoded by a
+ * {@link LineTokenizer} into a record, which is then applied to a bulk load of the TrainCompany.
+ * In parallel mode, the windows are split into chunks of lines that are decoded by a fork-join pool, while
+ * the records are applied in the order of the file, so the result (and the first error) is the same.
  *
  * @author Grupo 38
  * @author João Galinho (87667)
@@ -20,145 +33,514 @@ import java.util.LinkedList;
 class Parser {
 
     /**
-     * TrainCompany for which the data will be copied to.
+     * Size (in bytes, as a power of 2) of each part of the file mapped in memory.
      */
-    private TrainCompany _trainCompany;
+    private static final int WINDOW_BITS = 30;
 
     /**
-     * Parses the data from the file to the _trainCompany.
+     * Approximate size (in bytes) of each chunk of lines decoded by a task, in parallel mode.
+     */
+    private static final int CHUNK_SIZE = 1 << 22;
+
+    /**
+     * Bulk load of the TrainCompany for which the data will be copied to.
+     */
+    private TrainCompany.BulkLoad _load;
+
+    /**
+     * Format of the file being parsed.
+     */
+    private DataFormat _format;
+
+    /**
+     * Table where the names of the stations of the file are interned (the one of the TrainCompany).
+     */
+    private NameTable _stationNames;
+
+    /**
+     * Pool that decodes the lines in parallel mode (null in sequential mode).
+     */
+    private final ForkJoinPool _pool;
+
+    /**
+     * Constructor.
+     * Creates a parser that decodes and applies one line at a time.
+     */
+    Parser() {
+        this(null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param pool that decodes chunks of lines in parallel, or null to decode one line at a time.
+     */
+    Parser(ForkJoinPool pool) {
+        _pool = pool;
+    }
+
+    /**
+     * Parses the data from the file to the TrainCompany, in a bulk load committed at the end.
      *
      * @param fileName     of the file to read.
      * @param trainCompany to copy the data to.
-     * @throws ImportFileException if any error is found while parsing the file.
+     * @throws ImportFileException if any error is found while parsing the file (with the number of its line).
+     *                             The lines before it are imported.
      */
     void parseFile(String fileName, TrainCompany trainCompany) throws ImportFileException {
-        _trainCompany = trainCompany;
+        _load = trainCompany.startBulkLoad();
+        _format = DataFormat.of(fileName);
+        _stationNames = trainCompany.getStationNames();
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
-            String line;
-
-            while ((line = reader.readLine()) != null) {
-                parseLine(line);
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            int lineNumber = 0;
+            while (position < size) {
+                long length = Math.min(1L << WINDOW_BITS, size - position);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                boolean last = position + length == size;
+                int end = last ? (int) length : lastLineEnd(window);
+                if (end == 0)
+                    throw new ImportFileException(lineNumber + 1, new ImportFileException("line too long"));
+                window.limit(end);
+                lineNumber = _pool == null ? parseLines(window, lineNumber) : parseChunks(window, lineNumber);
+                position += end;
             }
         } catch (IOException ioe) {
             throw new ImportFileException(ioe);
+        } finally {
+            _load.commit();
         }
     }
 
     /**
-     * Parses the data contained in the string (which represents a line of the import file).
+     * Returns the end of the last complete line of a window (after its line terminator), or 0 if there is none.
+     */
+    private static int lastLineEnd(ByteBuffer window) {
+        int end = window.limit();
+        while (end > 0 && window.get(end - 1) != '\n')
+            end--;
+        return end;
+    }
+
+    /**
+     * Returns the end of the line that contains the given offset (after its line terminator).
+     */
+    private static int lineEnd(ByteBuffer window, int offset) {
+        while (offset < window.limit() && window.get(offset++) != '\n')
+            ;
+        return offset;
+    }
+
+    /**
+     * Decodes and applies the lines of a window, one at a time.
      *
-     * @param line to parse.
-     * @throws ImportFileException if any error is found while parsing the line.
+     * @param window with the lines.
+     * @param lineNumber of the line before the window.
+     * @return the number of the last line of the window.
+     * @throws ImportFileException if any error is found while parsing a line.
      */
-    private void parseLine(String line) throws ImportFileException {
-        String[] components = line.split("\\|");
+    private int parseLines(ByteBuffer window, int lineNumber) throws ImportFileException {
+        LineTokenizer line = _format.tokenizer(window, true, lineNumber);
+        while (line.nextLine())
+            try {
+                decode(line, _stationNames).apply(_load);
+            } catch (ImportFileException | NumberFormatException | DateTimeException e) {
+                throw new ImportFileException(line.getLineNumber(), e);
+            }
+        return line.getLineNumber();
+    }
 
-        switch (components[0]) {
-            case "PASSENGER":
-                parsePassenger(components);
-                break;
+    /**
+     * Decodes the lines of a window in chunks, in parallel, and applies them in order.
+     * Only a few chunks ahead of the one being applied are decoded, so the records in memory are bounded.
+     *
+     * @param window with the lines.
+     * @param lineNumber of the line before the window.
+     * @return the number of the last line of the window.
+     * @throws ImportFileException if any error is found while parsing a line.
+     */
+    private int parseChunks(ByteBuffer window, int lineNumber) throws ImportFileException {
+        Deque<ForkJoinTask<Chunk>> tasks = new ArrayDeque<>();
+        int ahead = 2 * _pool.getParallelism();
+        int next = 0;
+        try {
+            while (next < window.limit() || !tasks.isEmpty()) {
+                while (next < window.limit() && tasks.size() < ahead) {
+                    int end = lineEnd(window, Math.min(next + CHUNK_SIZE, window.limit()) - 1);
+                    ByteBuffer bytes = window.slice(next, end - next);
+                    tasks.add(_pool.submit(() -> decodeChunk(_format.tokenizer(bytes, true, 0), _stationNames)));
+                    next = end;
+                }
+                Chunk chunk = tasks.remove().join();
+                for (int i = 0; i < chunk._records.size(); i++)
+                    try {
+                        chunk._records.get(i).apply(_load);
+                    } catch (ImportFileException | NumberFormatException | DateTimeException e) {
+                        throw new ImportFileException(lineNumber + chunk._lines.get(i), e);
+                    }
+                lineNumber += chunk._lineCount;
+            }
+        } finally {
+            for (ForkJoinTask<Chunk> task : tasks)
+                task.cancel(false);
+        }
+        return lineNumber;
+    }
 
-            case "SERVICE":
-                parseService(components);
+    /**
+     * Decodes the lines of a chunk, until the end of the chunk or the first line with an error.
+     *
+     * @param line tokenizer of the chunk.
+     * @param stationNames table where the names of the stations are interned.
+     * @return the records of the chunk.
+     */
+    private static Chunk decodeChunk(LineTokenizer line, NameTable stationNames) {
+        Chunk chunk = new Chunk();
+        while (line.nextLine()) {
+            try {
+                chunk.add(decode(line, stationNames), line.getLineNumber());
+            } catch (ImportFileException | NumberFormatException | DateTimeException e) {
+                chunk.add(new ErrorRecord(e), line.getLineNumber());
                 break;
+            }
+        }
+        chunk._lineCount = line.getLineNumber();
+        return chunk;
+    }
 
-            case "ITINERARY":
-                parseItinerary(components);
-                break;
+    /**
+     * Decodes the current line of the import file.
+     *
+     * @param line tokenizer at the line.
+     * @param stationNames table where the names of the stations are interned.
+     * @return the record of the line.
+     * @throws ImportFileException if the line isn't formatted correctly.
+     * @throws NumberFormatException if a number of the line isn't formatted correctly.
+     * @throws DateTimeException if a time or date of the line isn't formatted correctly.
+     */
+    private static Record decode(LineTokenizer line, NameTable stationNames) throws ImportFileException {
+        if (line.fieldEquals(0, "PASSENGER"))
+            return decodePassenger(line);
+        else if (line.fieldEquals(0, "SERVICE"))
+            return decodeService(line, stationNames);
+        else if (line.fieldEquals(0, "ITINERARY"))
+            return decodeItinerary(line, stationNames);
+        else
+            throw new ImportFileException("invalid type of line: " + line.getString(0));
+    }
+
+    /**
+     * Decodes the current line as a passenger.
+     *
+     * @param line tokenizer at the line.
+     * @return the passenger record.
+     * @throws ImportFileException if the line isn't formatted correctly.
+     */
+    private static Record decodePassenger(LineTokenizer line) throws ImportFileException {
+        if (line.getFieldCount() != 2)
+            throw new ImportFileException("invalid number of arguments in passenger line: " + line.getFieldCount());
+
+        return new PassengerRecord(line.getString(1));
+    }
 
-            default:
-                throw new ImportFileException("invalid type of line: " + components[0]);
+    /**
+     * Decodes the current line as a service.
+     *
+     * @param line tokenizer at the line.
+     * @param stationNames table where the names of the stations are interned.
+     * @return the service record.
+     * @throws ImportFileException if the line isn't formatted correctly.
+     */
+    private static Record decodeService(LineTokenizer line, NameTable stationNames) throws ImportFileException {
+        if (line.getFieldCount() < 3 || line.getFieldCount() % 2 == 0)
+            throw new ImportFileException("invalid number of arguments in service line: " + line.getFieldCount());
+
+        double cost = line.getDouble(2);
+        int serviceId = line.getInt(1);
+        int stops = (line.getFieldCount() - 3) / 2;
+        int[] minutes = new int[stops];
+        String[] stations = new String[stops];
+        for (int i = 0; i < stops; i++) {
+            minutes[i] = line.getMinutes(3 + 2 * i);
+            stations[i] = line.getName(4 + 2 * i, stationNames);
         }
+        return new ServiceRecord(serviceId, cost, minutes, stations);
     }
 
     /**
-     * Interprets the string components given as parameter as a passenger and pareses it to the _trainCompany.
+     * Decodes the current line as an itinerary of a passenger.
+     * Each trip of the itinerary is a field with the service id, the departure station and the arrival station,
+     * separated by '/'.
      *
-     * @param components to parse, that represent a passenger.
-     * @throws ImportFileException if the components are not formatted correctly, or the method is
-     *                             trying to parse a passenger with same name as an already existing one.
+     * @param line tokenizer at the line.
+     * @param stationNames table where the names of the stations are interned.
+     * @return the itinerary record.
+     * @throws ImportFileException if the line isn't formatted correctly.
      */
-    private void parsePassenger(String[] components) throws ImportFileException {
-        if (components.length != 2)
-            throw new ImportFileException("invalid number of arguments in passenger line: " + components.length);
+    private static Record decodeItinerary(LineTokenizer line, NameTable stationNames) throws ImportFileException {
+        if (line.getFieldCount() < 4)
+            throw new ImportFileException("Invalid number of elements in itinerary line: " + line.getFieldCount());
 
-        String passengerName = components[1];
+        int passengerId = line.getInt(1);
+        LocalDate date = line.getDate(2);
+        int trips = line.getFieldCount() - 3;
+        int[] services = new int[trips];
+        String[] departures = new String[trips];
+        String[] arrivals = new String[trips];
 
-        try {
-            _trainCompany.addPassenger(passengerName);
-        } catch (NonUniquePassengerNameException e) {
-            throw new ImportFileException(e);
+        for (int i = 0; i < trips; i++) {
+            int start = line.getStart(3 + i);
+            int end = line.getEnd(3 + i);
+            int first = line.indexOf((byte) '/', start, end);
+            int second = line.indexOf((byte) '/', first + 1, end);
+            if (second >= end)
+                throw new ImportFileException("invalid trip in itinerary line: " + line.getString(3 + i));
+
+            services[i] = line.getInt(start, first);
+            departures[i] = line.getName(first + 1, second, stationNames);
+            arrivals[i] = line.getName(second + 1, line.indexOf((byte) '/', second + 1, end), stationNames);
         }
+        return new ItineraryRecord(passengerId, date, services, departures, arrivals);
     }
 
     /**
-     * Interprets the string components given as parameter as a service and pareses it to the _trainCompany.
-     *
-     * @param components to parse, that represent a service.
-     * @throws ImportFileException if the components are not formatted correctly, or the method is
-     *                             trying to parse a service with an id that is the same as an already existing one or
-     *                             a service with a duplicate station(s).
+     * The records decoded from a chunk of lines.
      */
-    private void parseService(String[] components) throws ImportFileException {
-        double cost = Double.parseDouble(components[2]);
-        int serviceId = Integer.parseInt(components[1]);
+    private static class Chunk {
 
-        try {
-            _trainCompany.addService(serviceId, cost);
-        } catch (NonUniqueServiceIdException nuside) {
-            throw new ImportFileException("Multiple services with same id. ID = " + serviceId);
+        /**
+         * Records, in the order of the lines.
+         */
+        private final List<Record> _records = new ArrayList<>();
+
+        /**
+         * Number of the line of each record, in the chunk.
+         */
+        private final List<Integer> _lines = new ArrayList<>();
+
+        /**
+         * Number of lines of the chunk.
+         */
+        private int _lineCount;
+
+        /**
+         * Adds the record of a line.
+         */
+        void add(Record record, int line) {
+            _records.add(record);
+            _lines.add(line);
         }
+    }
+
+    /**
+     * A decoded line of the import file.
+     */
+    private interface Record {
+
+        /**
+         * Applies the line to a TrainCompany.
+         *
+         * @param load of the TrainCompany to copy the data to.
+         * @throws ImportFileException if the line can't be applied.
+         */
+        void apply(TrainCompany.BulkLoad load) throws ImportFileException;
+    }
 
-        for (int i = 3; i < components.length; i += 2) {
-            LocalTime ltime = LocalTime.parse(components[i]);
-            String stationName = components[i + 1];
+    /**
+     * A line that couldn't be decoded.
+     */
+    private static class ErrorRecord implements Record {
 
+        /**
+         * Error found while decoding the line.
+         */
+        private final Exception _error;
+
+        /**
+         * Constructor.
+         *
+         * @param error found while decoding the line (an ImportFileException or a RuntimeException).
+         */
+        ErrorRecord(Exception error) {
+            _error = error;
+        }
+
+        /**
+         * Reports the error found while decoding the line.
+         */
+        @Override
+        public void apply(TrainCompany.BulkLoad load) throws ImportFileException {
+            if (_error instanceof ImportFileException)
+                throw (ImportFileException) _error;
+            throw (RuntimeException) _error;
+        }
+    }
+
+    /**
+     * A passenger line.
+     */
+    private static class PassengerRecord implements Record {
+
+        /**
+         * Name of the passenger.
+         */
+        private final String _name;
+
+        /**
+         * Constructor.
+         *
+         * @param name of the passenger.
+         */
+        PassengerRecord(String name) {
+            _name = name;
+        }
+
+        /**
+         * Adds the passenger.
+         *
+         * @throws ImportFileException if there is already a passenger with the same name.
+         */
+        @Override
+        public void apply(TrainCompany.BulkLoad load) throws ImportFileException {
             try {
-                _trainCompany.addStation(serviceId, stationName, ltime);
-            } catch (NoSuchServiceIdException | NonUniqueStationAtServiceException e) {
+                load.addPassenger(_name);
+            } catch (NonUniquePassengerNameException e) {
                 throw new ImportFileException(e);
             }
         }
     }
 
     /**
-     * Interprets the string components given as parameter as an itinerary of a passenger
-     * and pareses it to the _trainCompany.
-     *
-     * @param components to parse, that represent an itinerary of a passenger.
-     * @throws ImportFileException if the components are not formatted correctly, or the method is
-     *                             trying to parse an itinerary with trips that correspond to services
-     *                             or stations that don't exist.
+     * A service line.
      */
-    private void parseItinerary(String[] components) throws ImportFileException {
-        if (components.length < 4)
-            throw new ImportFileException("Invalid number of elements in itinerary line: " + components.length);
+    private static class ServiceRecord implements Record {
+
+        /**
+         * Id of the service.
+         */
+        private final int _id;
 
-        int passengerId = Integer.parseInt(components[1]);
-        LocalDate date = LocalDate.parse(components[2]);
+        /**
+         * Cost of the service.
+         */
+        private final double _cost;
 
-        Itinerary itinerary = new Itinerary(date);
+        /**
+         * Time (minutes of the day) at each station.
+         */
+        private final int[] _minutes;
 
-        for (int i = 3; i < components.length; i++) {
-            String segmentDescription[] = components[i].split("/");
+        /**
+         * Names of the stations.
+         */
+        private final String[] _stations;
 
-            int serviceId = Integer.parseInt(segmentDescription[0]);
-            String departureStation = segmentDescription[1];
-            String arrivalStation = segmentDescription[2];
+        /**
+         * Constructor.
+         *
+         * @param id of the service.
+         * @param cost of the service.
+         * @param minutes at each station.
+         * @param stations of the service.
+         */
+        ServiceRecord(int id, double cost, int[] minutes, String[] stations) {
+            _id = id;
+            _cost = cost;
+            _minutes = minutes;
+            _stations = stations;
+        }
 
+        /**
+         * Adds the service, and its stations.
+         *
+         * @throws ImportFileException if there is already a service with the same id, or the service has
+         *                             duplicate stations.
+         */
+        @Override
+        public void apply(TrainCompany.BulkLoad load) throws ImportFileException {
             try {
-                if (!itinerary.addTripEnd(_trainCompany.getServiceById(serviceId), _trainCompany.getStation(departureStation), _trainCompany.getStation(arrivalStation)))
-                    throw new ImportFileException();
-            } catch (NoSuchServiceIdException | NoSuchStationNameException nsid) {
-                throw new ImportFileException(nsid);
+                load.addService(_id, _cost, _stations, _minutes);
+            } catch (NonUniqueServiceIdException nuside) {
+                throw new ImportFileException("Multiple services with same id. ID = " + _id);
+            } catch (NonUniqueStationAtServiceException e) {
+                throw new ImportFileException(e);
             }
         }
+    }
 
-        try {
-            _trainCompany.addItinerary(passengerId, itinerary);
-        } catch (NoSuchPassengerIdException nspid) {
-            throw new ImportFileException(nspid);
+    /**
+     * An itinerary line.
+     */
+    private static class ItineraryRecord implements Record {
+
+        /**
+         * Id of the passenger.
+         */
+        private final int _passengerId;
+
+        /**
+         * Day of the itinerary.
+         */
+        private final LocalDate _date;
+
+        /**
+         * Service id of each trip.
+         */
+        private final int[] _services;
+
+        /**
+         * Departure station of each trip.
+         */
+        private final String[] _departures;
+
+        /**
+         * Arrival station of each trip.
+         */
+        private final String[] _arrivals;
+
+        /**
+         * Constructor.
+         *
+         * @param passengerId of the passenger.
+         * @param date of the itinerary.
+         * @param services of the trips.
+         * @param departures of the trips.
+         * @param arrivals of the trips.
+         */
+        ItineraryRecord(int passengerId, LocalDate date, int[] services, String[] departures, String[] arrivals) {
+            _passengerId = passengerId;
+            _date = date;
+            _services = services;
+            _departures = departures;
+            _arrivals = arrivals;
+        }
+
+        /**
+         * Adds the itinerary to the passenger.
+         *
+         * @throws ImportFileException if the itinerary has trips that correspond to services or stations
+         *                             that don't exist, or the passenger doesn't exist.
+         */
+        @Override
+        public void apply(TrainCompany.BulkLoad load) throws ImportFileException {
+            Itinerary.Builder builder = new Itinerary.Builder(_date);
+
+            for (int i = 0; i < _services.length; i++) {
+                try {
+                    if (!builder.addTripEnd(load.getServiceById(_services[i]), load.getStation(_departures[i]), load.getStation(_arrivals[i])))
+                        throw new ImportFileException();
+                } catch (NoSuchServiceIdException | NoSuchStationNameException nsid) {
+                    throw new ImportFileException(nsid);
+                }
+            }
+
+            try {
+                load.addItinerary(_passengerId, builder.build());
+            } catch (NoSuchPassengerIdException nspid) {
+                throw new ImportFileException(nspid);
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -1,11 +1,13 @@
 package mmt.core;
 
-import java.io.Serializable;
 import java.time.Duration;
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.RandomAccess;
 import java.util.Locale;
+import java.util.stream.DoubleStream;
 
 /**
  * A Passenger has an id, a name, a value  spent in the Train Company, has a list of all
@@ -17,12 +19,7 @@ import java.util.Locale;
  * @author Filipe Henriques (87653)
  * @version 1.0
  */
-public class Passenger implements Serializable {
-
-    /**
-     * Serial number for serialization.
-     */
-    private static final long serialVersionUID = -2735800031670193147L;
+public class Passenger {
 
     /**
      * Passenger's id.
@@ -40,9 +37,9 @@ public class Passenger implements Serializable {
     private double _spent;
 
     /**
-     * Passenger's itineraries.
+     * Passenger's itineraries (an immutable list, replaced whenever an itinerary is added).
      */
-    private List<Itinerary> _itineraries;
+    private Itineraries _itineraries;
 
     /**
      * Passenger's temporary itineraries.
@@ -54,18 +51,35 @@ public class Passenger implements Serializable {
      */
     private Category _category;
 
+    /**
+     * Policy that defines the passenger's category.
+     */
+    private LoyaltyPolicy _loyaltyPolicy;
+
+    /**
+     * Costs of the passenger's most recent itineraries.
+     */
+    private RecentCosts _recentCosts;
+
+    /**
+     * Number of itineraries at the last save (the following ones were acquired since then).
+     */
+    private int _savedItineraries;
+
     /**
      * Constructor.
      * Creates a Passenger with its attributes.
      *
      * @param id   of the passenger to create.
      * @param name of the passenger to create.
+     * @param loyaltyPolicy that defines the passenger's category.
      */
-    Passenger(int id, String name) {
+    Passenger(int id, String name, LoyaltyPolicy loyaltyPolicy) {
         _id = id;
         _name = name;
-        _itineraries = new ArrayList<>();
+        _itineraries = Itineraries.EMPTY;
         _category = Normal.INSTANCE;
+        setLoyaltyPolicy(loyaltyPolicy);
     }
 
     /**
@@ -105,13 +119,46 @@ public class Passenger implements Serializable {
         return _category;
     }
 
+    /**
+     * Returns the policy that defines the passenger's category.
+     *
+     * @return the passenger's loyalty policy.
+     */
+    LoyaltyPolicy getLoyaltyPolicy() {
+        return _loyaltyPolicy;
+    }
+
+    /**
+     * Changes the policy that defines the passenger's category,
+     * recalculating the cost of the recent itineraries it considers.
+     *
+     * @param loyaltyPolicy to use.
+     */
+    void setLoyaltyPolicy(LoyaltyPolicy loyaltyPolicy) {
+        _loyaltyPolicy = loyaltyPolicy;
+        _recentCosts = new RecentCosts(loyaltyPolicy.getWindowSize());
+        int size = _itineraries.size();
+        for (Itinerary itinerary : _itineraries.subList(Math.max(0, size - loyaltyPolicy.getWindowSize()), size))
+            _recentCosts.add(itinerary.getCost());
+    }
+
+    /**
+     * Returns the cost of the passenger's most recent itineraries (as many as the loyalty policy considers).
+     *
+     * @return the cost of the recent itineraries.
+     */
+    double getRecentCost() {
+        return _recentCosts.getSum();
+    }
+
     /**
      * Returns the itineraries used by the passenger.
+     * The list is immutable: it isn't changed by the itineraries acquired later.
      *
      * @return Unmodifiable list of itineraries.
      */
     public List<Itinerary> getItineraries() {
-        return Collections.unmodifiableList(_itineraries);
+        return _itineraries;
     }
 
     /**
@@ -121,7 +168,43 @@ public class Passenger implements Serializable {
      */
     void addItinerary(Itinerary itinerary) {
         _spent += itinerary.getCost() * getCategory().getDiscount();
-        _itineraries.add(itinerary);
+        _itineraries = _itineraries.append(itinerary);
+        _recentCosts.add(itinerary.getCost());
+    }
+
+    /**
+     * Restores an itinerary used by the passenger, without charging it again.
+     *
+     * @param itinerary to add at the list of itineraries used by the passenger.
+     */
+    void restoreItinerary(Itinerary itinerary) {
+        _itineraries = _itineraries.append(itinerary);
+        _recentCosts.add(itinerary.getCost());
+    }
+
+    /**
+     * Returns the number of itineraries at the last save.
+     *
+     * @return the number of itineraries saved.
+     */
+    int getSavedItineraryCount() {
+        return _savedItineraries;
+    }
+
+    /**
+     * Marks the passenger as saved: the itineraries acquired from now on are the ones saved by the next save.
+     */
+    void markSaved() {
+        _savedItineraries = _itineraries.size();
+    }
+
+    /**
+     * Restores the value spent by the passenger.
+     *
+     * @param spent value spent by the passenger.
+     */
+    void restoreSpent(double spent) {
+        _spent = spent;
     }
 
     /**
@@ -170,4 +253,127 @@ public class Passenger implements Serializable {
         Duration fullTravelTime = getFullTravelTime();
         return String.format(Locale.US, "%d|%s|%s|%d|%.2f|%02d:%02d", _id, _name, getCategory(), _itineraries.size(), _spent, fullTravelTime.toHours(), fullTravelTime.toMinutes() % 60);
     }
-}
\ No newline at end of file
+
+    /**
+     * The costs of the last itineraries of a passenger, kept in a ring buffer with their sum.
+     */
+    private static class RecentCosts {
+
+        /**
+         * Costs of the last itineraries, from the position of the next cost, circularly
+         * (the positions not used yet are 0, and come before the costs).
+         */
+        private final double[] _costs;
+
+        /**
+         * Position where the next cost will be kept.
+         */
+        private int _next;
+
+        /**
+         * Sum of the costs, if already calculated.
+         */
+        private double _sum;
+
+        /**
+         * Whether _sum is up to date (false whenever a cost is added).
+         */
+        private boolean _sumCalculated = true;
+
+        /**
+         * Constructor.
+         *
+         * @param size number of costs kept.
+         */
+        RecentCosts(int size) {
+            _costs = new double[size];
+        }
+
+        /**
+         * Adds the cost of a new itinerary, replacing the oldest one if the buffer is full.
+         *
+         * @param cost of the itinerary.
+         */
+        void add(double cost) {
+            _costs[_next] = cost;
+            _next = (_next + 1) % _costs.length;
+            _sumCalculated = false;
+        }
+
+        /**
+         * Returns the sum of the costs.
+         * The sum is calculated once after each new cost, with compensation and from the oldest cost to the
+         * newest one, so it is the same as summing the costs of the last itineraries in order.
+         *
+         * @return the sum of the last costs.
+         */
+        double getSum() {
+            if (!_sumCalculated) {
+                _sum = DoubleStream.concat(Arrays.stream(_costs, _next, _costs.length), Arrays.stream(_costs, 0, _next))
+                    .sum();
+                _sumCalculated = true;
+            }
+            return _sum;
+        }
+    }
+
+    /**
+     * An immutable list of itineraries.
+     * Adding an itinerary returns a new list, which shares the array of the previous one when it still has
+     * room: the previous list never sees the positions after its size, so it stays unchanged, and only the
+     * latest list is added to.
+     */
+    private static class Itineraries extends AbstractList<Itinerary> implements RandomAccess {
+
+        /**
+         * List without itineraries.
+         */
+        static final Itineraries EMPTY = new Itineraries(new Itinerary[0], 0);
+
+        /**
+         * Itineraries of the list (and room for more).
+         */
+        private final Itinerary[] _array;
+
+        /**
+         * Number of itineraries of the list.
+         */
+        private final int _size;
+
+        /**
+         * Constructor.
+         *
+         * @param array with the itineraries.
+         * @param size number of itineraries of the list.
+         */
+        private Itineraries(Itinerary[] array, int size) {
+            _array = array;
+            _size = size;
+        }
+
+        /**
+         * Returns a list with the itineraries of this one and another one at the end.
+         * Must only be called on the latest list.
+         *
+         * @param itinerary to add.
+         * @return the new list.
+         */
+        Itineraries append(Itinerary itinerary) {
+            Itinerary[] array = _size < _array.length ? _array : Arrays.copyOf(_array, Math.max(4, 2 * _size));
+            array[_size] = itinerary;
+            return new Itineraries(array, _size + 1);
+        }
+
+        @Override
+        public Itinerary get(int index) {
+            if (index >= _size)
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + _size);
+            return _array[index];
+        }
+
+        @Override
+        public int size() {
+            return _size;
+        }
+    }
+}
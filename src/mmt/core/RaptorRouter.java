@@ -0,0 +1,339 @@
+package mmt.core;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.*;
+
+/**
+ * A RaptorRouter searches itineraries using the round-based RAPTOR algorithm.
+ * Services with the same sequence of stations (that don't overtake each other) are grouped into routes,
+ * and each round of the search adds one more trip to the itineraries, so the result is the set of
+ * itineraries that are not beaten both in arrival time and in number of trips.
+ *
+ * @author Grupo 38
+ * @author João Galinho (87667)
+ * @author Filipe Henriques (87653)
+ * @version 1.0
+ */
+class RaptorRouter implements ItineraryRouter {
+
+    /**
+     * Value representing an unreachable arrival time.
+     */
+    private static final int INFINITY = Integer.MAX_VALUE;
+
+    /**
+     * Timetable being searched.
+     */
+    private final Timetable _timetable;
+
+    /**
+     * Station indexes of the stops of each route.
+     */
+    private final int[][] _routeStops;
+
+    /**
+     * Services of each route, by order of departure.
+     */
+    private final Service[][] _routeTrips;
+
+    /**
+     * Times (minutes of the day) of each route, trip by trip: _routeTimes[route][trip * stops + stop].
+     */
+    private final int[][] _routeTimes;
+
+    /**
+     * Routes serving each station, as pairs (route, position of the station in the route).
+     */
+    private final int[][] _stationRoutes;
+
+    /**
+     * Constructor.
+     * Groups the services of the given timetable into routes.
+     *
+     * @param timetable to search.
+     */
+    RaptorRouter(Timetable timetable) {
+        _timetable = timetable;
+        Map<List<Integer>, List<List<Integer>>> groups = new HashMap<>();
+        List<List<Integer>> routes = new ArrayList<>();
+
+        List<Integer> sorted = new ArrayList<>();
+        for (int service = 0; service < timetable.getServiceCount(); service++)
+            if (timetable.getEndStop(service) - timetable.getFirstStop(service) > 1)
+                sorted.add(service);
+        sorted.sort(Comparator.comparingInt(service -> timetable.getStopMinutes(timetable.getFirstStop(service))));
+
+        for (int service : sorted) {
+            List<Integer> stops = new ArrayList<>();
+            for (int stop = timetable.getFirstStop(service); stop < timetable.getEndStop(service); stop++)
+                stops.add(timetable.getStopStation(stop));
+            List<List<Integer>> candidates = groups.computeIfAbsent(stops, k -> new ArrayList<>());
+            List<Integer> route = null;
+            for (List<Integer> candidate : candidates)
+                if (!overtakes(service, candidate.get(candidate.size() - 1))) {
+                    route = candidate;
+                    break;
+                }
+            if (route == null) {
+                route = new ArrayList<>();
+                candidates.add(route);
+                routes.add(route);
+            }
+            route.add(service);
+        }
+
+        _routeStops = new int[routes.size()][];
+        _routeTrips = new Service[routes.size()][];
+        _routeTimes = new int[routes.size()][];
+        List<List<Integer>> stationRoutes = new ArrayList<>();
+        for (int i = 0; i < timetable.getStationCount(); i++)
+            stationRoutes.add(new ArrayList<>());
+
+        for (int route = 0; route < routes.size(); route++) {
+            List<Integer> trips = routes.get(route);
+            int first = timetable.getFirstStop(trips.get(0));
+            int length = timetable.getEndStop(trips.get(0)) - first;
+            _routeTrips[route] = new Service[trips.size()];
+            _routeStops[route] = new int[length];
+            _routeTimes[route] = new int[trips.size() * length];
+            for (int position = 0; position < length; position++) {
+                int station = timetable.getStopStation(first + position);
+                _routeStops[route][position] = station;
+                stationRoutes.get(station).add(route);
+                stationRoutes.get(station).add(position);
+            }
+            for (int trip = 0; trip < trips.size(); trip++) {
+                _routeTrips[route][trip] = timetable.getService(trips.get(trip));
+                int tripFirst = timetable.getFirstStop(trips.get(trip));
+                for (int position = 0; position < length; position++)
+                    _routeTimes[route][trip * length + position] = timetable.getStopMinutes(tripFirst + position);
+            }
+        }
+
+        _stationRoutes = new int[timetable.getStationCount()][];
+        for (int station = 0; station < _stationRoutes.length; station++)
+            _stationRoutes[station] = stationRoutes.get(station).stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Returns true if the service arrives earlier than the previous one (with the same stations) at any station.
+     */
+    private boolean overtakes(int service, int previous) {
+        int first = _timetable.getFirstStop(service);
+        int previousFirst = _timetable.getFirstStop(previous);
+        for (int position = 0; first + position < _timetable.getEndStop(service); position++)
+            if (_timetable.getStopMinutes(first + position) < _timetable.getStopMinutes(previousFirst + position))
+                return true;
+        return false;
+    }
+
+    /**
+     * Returns the itineraries from start to end that depart after the given time, one for each number
+     * of trips that allows arriving earlier than with fewer trips.
+     *
+     * @param start Station from which the itineraries will start.
+     * @param end Station to which the itineraries will end.
+     * @param day of the itineraries.
+     * @param time after which the itineraries must depart.
+     * @return the itineraries from start to end, from the one with the fewest trips to the fastest one.
+     */
+    @Override
+    public List<Itinerary> search(Station start, Station end, LocalDate day, LocalTime time) {
+        List<Itinerary> itineraries = new ArrayList<>();
+        if (start.equals(end) || start.getIndex() >= _timetable.getStationCount() || end.getIndex() >= _timetable.getStationCount())
+            return itineraries;
+
+        Rounds rounds = new Rounds(start.getIndex(), end.getIndex(), Timetable.toMinutes(time));
+        rounds.run();
+        for (int round : rounds._arrivalRounds) {
+            Itinerary itinerary = rounds.buildItinerary(round, day);
+            if (itinerary != null)
+                itineraries.add(itinerary);
+        }
+        return itineraries;
+    }
+
+    /**
+     * State of a single search.
+     * Round k finds the earliest arrival at each station using at most k trips.
+     */
+    private class Rounds {
+
+        /**
+         * Station index where the search ends.
+         */
+        private final int _end;
+
+        /**
+         * Earliest arrival at each station so far.
+         */
+        private final int[] _arrivals;
+
+        /**
+         * Round in which the earliest arrival at each station was found.
+         */
+        private final int[] _rounds;
+
+        /**
+         * Stations improved in the last round.
+         */
+        private final boolean[] _marked;
+
+        /**
+         * For each round, the route, trip, boarding position and boarding round used to reach each station.
+         */
+        private final List<int[]> _parents = new ArrayList<>();
+
+        /**
+         * Rounds in which the arrival at the end station improved.
+         */
+        private final List<Integer> _arrivalRounds = new ArrayList<>();
+
+        /**
+         * Constructor.
+         *
+         * @param start station index.
+         * @param end station index.
+         * @param time after which the itineraries must depart.
+         */
+        Rounds(int start, int end, int time) {
+            _end = end;
+            _arrivals = new int[_timetable.getStationCount()];
+            _rounds = new int[_timetable.getStationCount()];
+            _marked = new boolean[_timetable.getStationCount()];
+            Arrays.fill(_arrivals, INFINITY);
+            _arrivals[start] = time;
+            _marked[start] = true;
+            _parents.add(null);
+        }
+
+        /**
+         * Runs rounds until no station is improved.
+         */
+        void run() {
+            int[] queue = new int[_routeStops.length];
+            for (int round = 1; ; round++) {
+                Arrays.fill(queue, -1);
+                boolean marked = false;
+                for (int station = 0; station < _timetable.getStationCount(); station++) {
+                    if (!_marked[station])
+                        continue;
+                    _marked[station] = false;
+                    marked = true;
+                    int[] routes = _stationRoutes[station];
+                    for (int i = 0; i < routes.length; i += 2)
+                        if (queue[routes[i]] < 0 || routes[i + 1] < queue[routes[i]])
+                            queue[routes[i]] = routes[i + 1];
+                }
+                if (!marked)
+                    break;
+
+                int[] previousArrivals = _arrivals.clone();
+                int[] previousRounds = _rounds.clone();
+                int[] parents = new int[4 * _timetable.getStationCount()];
+                for (int route = 0; route < queue.length; route++)
+                    if (queue[route] >= 0)
+                        scanRoute(route, queue[route], round, previousArrivals, previousRounds, parents);
+                _parents.add(parents);
+
+                if (_rounds[_end] == round)
+                    _arrivalRounds.add(round);
+            }
+        }
+
+        /**
+         * Traverses a route from the given position, boarding the earliest trip that can be caught
+         * at each station and improving the arrivals at the following stations.
+         */
+        private void scanRoute(int route, int from, int round, int[] previousArrivals, int[] previousRounds, int[] parents) {
+            int[] stops = _routeStops[route];
+            int[] times = _routeTimes[route];
+            int length = stops.length;
+            int trip = -1;
+            int boarding = -1;
+            int boardingRound = -1;
+
+            for (int position = from; position < length; position++) {
+                int station = stops[position];
+
+                if (trip >= 0) {
+                    int arrival = times[trip * length + position];
+                    if (arrival < _arrivals[station] && arrival < _arrivals[_end]) {
+                        _arrivals[station] = arrival;
+                        _rounds[station] = round;
+                        _marked[station] = true;
+                        parents[4 * station] = route;
+                        parents[4 * station + 1] = trip;
+                        parents[4 * station + 2] = boarding;
+                        parents[4 * station + 3] = boardingRound;
+                    }
+                }
+
+                int ready = previousArrivals[station];
+                if (ready != INFINITY && trip != 0) {
+                    int earliest = earliestTrip(route, position, ready);
+                    if (earliest >= 0 && (trip < 0 || earliest < trip)) {
+                        trip = earliest;
+                        boarding = position;
+                        boardingRound = previousRounds[station];
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns the earliest trip of a route departing from the given position strictly after the given time,
+         * or -1 if there is none.
+         */
+        private int earliestTrip(int route, int position, int time) {
+            int[] times = _routeTimes[route];
+            int length = _routeStops[route].length;
+            int low = 0;
+            int high = _routeTrips[route].length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (times[middle * length + position] > time)
+                    high = middle;
+                else
+                    low = middle + 1;
+            }
+            return low < _routeTrips[route].length ? low : -1;
+        }
+
+        /**
+         * Builds the itinerary that reaches the end station in the given round.
+         *
+         * @param round in which the end station was reached.
+         * @param day of the itinerary.
+         * @return the itinerary, or null if no valid itinerary could be built.
+         */
+        Itinerary buildItinerary(int round, LocalDate day) {
+            LinkedList<Station> stops = new LinkedList<>();
+            LinkedList<Service> services = new LinkedList<>();
+            int station = _end;
+            stops.addFirst(_timetable.getStation(station));
+
+            while (round > 0) {
+                int[] parents = _parents.get(round);
+                int route = parents[4 * station];
+                Service trip = _routeTrips[route][parents[4 * station + 1]];
+                int boarding = parents[4 * station + 2];
+                int boardingRound = parents[4 * station + 3];
+                int[] routeStops = _routeStops[route];
+
+                int position = boarding;
+                while (routeStops[position] != station)
+                    position++;
+                for (; position > boarding; position--) {
+                    stops.addFirst(_timetable.getStation(routeStops[position - 1]));
+                    services.addFirst(trip);
+                }
+
+                station = routeStops[boarding];
+                round = boardingRound;
+            }
+            return Itinerary.fromStops(day, stops, services);
+        }
+    }
+}
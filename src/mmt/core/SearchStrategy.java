@@ -0,0 +1,61 @@
+package mmt.core;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The strategies available to search itineraries.
+ *
+ * @author Grupo 38
+ * @author João Galinho (87667)
+ * @author Filipe Henriques (87653)
+ * @version 1.0
+ */
+public enum SearchStrategy {
+
+    /**
+     * Every direct service, if there is any, or else the earliest itinerary for each departing service.
+     */
+    BY_SERVICE {
+        @Override
+        ItineraryRouter createRouter(Timetable timetable) {
+            return new ConnectionScanRouter(timetable);
+        }
+
+        @Override
+        void sort(List<Itinerary> itineraries, Timetable timetable) {
+            itineraries.sort(Comparator.comparing((Itinerary itinerary) -> itinerary.getStartTime(timetable))
+                .thenComparing(itinerary -> itinerary.getEndTime(timetable)));
+        }
+    },
+
+    /**
+     * The fastest itinerary for each number of trips, from the one with the fewest changes to the fastest one
+     * (the Pareto set of arrival time and number of trips, found by a single search).
+     */
+    FEWEST_CHANGES {
+        @Override
+        ItineraryRouter createRouter(Timetable timetable) {
+            return new RaptorRouter(timetable);
+        }
+    };
+
+    /**
+     * Creates a router with this strategy over the given timetable.
+     *
+     * @param timetable to search.
+     * @return the created router.
+     */
+    abstract ItineraryRouter createRouter(Timetable timetable);
+
+    /**
+     * Sorts the itineraries found by a router with this strategy in the order they are presented.
+     * By default, they are kept in the order of the router.
+     *
+     * @param itineraries to sort.
+     * @param timetable where the itineraries were found.
+     */
+    void sort(List<Itinerary> itineraries, Timetable timetable) {
+        // the order of the router
+    }
+}
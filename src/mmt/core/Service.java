@@ -1,9 +1,9 @@
 package mmt.core;
 
-import mmt.core.exceptions.NoSuchStationNameException;
+import mmt.core.exceptions.NonUniqueStationAtServiceException;
 
-import java.io.Serializable;
 import java.time.Duration;
+import java.time.LocalTime;
 import java.util.*;
 
 /**
@@ -14,12 +14,7 @@ import java.util.*;
  * @author Filipe Henriques (87653)
  * @version 1.0
  */
-public class Service implements Serializable {
-
-    /**
-     * Serial number for serialization.
-     */
-    private static final long serialVersionUID = 1830220111682854957L;
+public class Service {
 
     /**
      * Id of the service.
@@ -27,32 +22,34 @@ public class Service implements Serializable {
     private final int _id;
 
     /**
-     * Cost of the service.
+     * Dense index of the service in the TrainCompany (0, 1, 2, ...).
      */
-    private double _cost;
+    private final int _index;
 
     /**
-     * List of stations associated with the service.
+     * Cost of the service.
      */
-    private List<Station> _stations;
+    private double _cost;
 
     /**
-     * Boolean representing if the list of stations is sorted or not.
+     * Stations of the service, with their times.
+     * The stops are never modified: adding a station publishes new stops, so they can be read without locks.
      */
-    private boolean _sorted;
+    private volatile Stops _stops;
 
     /**
      * Constructor.
      * Creates a service with all its attributes.
      *
      * @param id of the service to create.
+     * @param index of the service to create in the TrainCompany.
      * @param cost of the service to create.
      */
-    Service(int id, double cost) {
+    Service(int id, int index, double cost) {
         _id = id;
+        _index = index;
         _cost = cost;
-        _stations = new ArrayList<>();
-        _sorted = true;
+        _stops = new Stops(Collections.emptyList(), new int[0], 0);
     }
 
     /**
@@ -64,6 +61,15 @@ public class Service implements Serializable {
         return _id;
     }
 
+    /**
+     * Returns the index of the service in the TrainCompany.
+     *
+     * @return the service's index.
+     */
+    int getIndex() {
+        return _index;
+    }
+
     /**
      * Returns the cost of the service.
      *
@@ -81,10 +87,11 @@ public class Service implements Serializable {
      * @return service's cost between start and end.
      */
     double getCost(Station start, Station end) {
-        Duration betweenDuration = getDuration(start, end);
-        if (betweenDuration.isNegative())
+        Stops stops = _stops;
+        long betweenMinutes = stops._minutes[stops.getPosition(end)] - stops._minutes[stops.getPosition(start)];
+        if (betweenMinutes < 0)
             return -1;
-        return _cost / getDuration().toMinutes() * betweenDuration.toMinutes();
+        return stops._rate * betweenMinutes;
     }
 
     /**
@@ -93,7 +100,7 @@ public class Service implements Serializable {
      * @return service's first station.
      */
     public Station getFirstStation() {
-        return getStations().get(0);
+        return _stops._stations.get(0);
     }
 
     /**
@@ -102,7 +109,8 @@ public class Service implements Serializable {
      * @return service's last station.
      */
     public Station getLastStation() {
-        return getStations().get(_stations.size() - 1);
+        List<Station> stations = _stops._stations;
+        return stations.get(stations.size() - 1);
     }
 
     /**
@@ -111,7 +119,7 @@ public class Service implements Serializable {
      * @return the service's duration.
      */
     Duration getDuration() {
-        return Duration.between(getFirstStation().getTime(this), getLastStation().getTime(this));
+        return Duration.ofMinutes(_stops.getDuration());
     }
 
     /**
@@ -122,20 +130,49 @@ public class Service implements Serializable {
      * @return certain service's part duration.
      */
     Duration getDuration(Station start, Station end) {
-        return Duration.between(start.getTime(this), end.getTime(this));
+        Stops stops = _stops;
+        return Duration.ofMinutes(stops._minutes[stops.getPosition(end)] - stops._minutes[stops.getPosition(start)]);
+    }
+
+    /**
+     * Returns the time of the service at the station given as parameter.
+     *
+     * @param station to get the time at.
+     * @return the time of the service at the station, or null if the service doesn't go through the station.
+     */
+    LocalTime getTime(Station station) {
+        Stops stops = _stops;
+        int position = stops.getPosition(station);
+        return position < 0 ? null : Timetable.toTime(stops._minutes[position]);
+    }
+
+    /**
+     * Returns the time (minutes of the day) of the service at the given position of its list of stations.
+     *
+     * @param position of the station.
+     * @return the minutes of the day of the service at that station.
+     */
+    int getMinutes(int position) {
+        return _stops._minutes[position];
     }
 
     /**
      * Returns the stations of the service.
      *
-     * @return the service's stations.
+     * @return the service's stations, sorted by time.
      */
     public List<Station> getStations() {
-        if (!_sorted) {
-            _stations.sort(Comparator.comparing(s -> s.getTime(this)));
-            _sorted = true;
-        }
-        return Collections.unmodifiableList(_stations);
+        return _stops._stations;
+    }
+
+    /**
+     * Returns the position of a station in the service's (sorted) list of stations.
+     *
+     * @param station to search for.
+     * @return the position of the station, or -1 if the service doesn't go through the station.
+     */
+    int getPosition(Station station) {
+        return _stops.getPosition(station);
     }
 
     /**
@@ -146,35 +183,65 @@ public class Service implements Serializable {
      * @return service's stations "sublist".
      */
     List<Station> getStations(Station start, Station end) {
-        List<Station> stations = getStations();
-        int startIndex = stations.indexOf(start);
-        int endIndex = stations.indexOf(end);
-        if (startIndex > endIndex)
+        Stops stops = _stops;
+        int startIndex = stops.getPosition(start);
+        int endIndex = stops.getPosition(end);
+        if (startIndex < 0 || startIndex > endIndex)
             return Collections.emptyList();
-        return Collections.unmodifiableList(stations.subList(startIndex, endIndex + 1));
+        return stops._stations.subList(startIndex, endIndex + 1);
     }
 
     /**
-     * Returns a "sublist" of all the stations after a station given as parameter.
+     * Adds a station to the service's list of stations, keeping it sorted by time.
+     * Concurrent readers keep seeing the previous stations until the new ones are published.
      *
-     * @param station after which the "sublist" will be created.
-     * @return the "sublist" of stations after the station given as parameter.
+     * @param station to add.
+     * @param time of the service at the station.
+     * @throws NonUniqueStationAtServiceException if the service already goes through the station.
      */
-    List<Station> getStationsAfter(Station station) {
-        if (!_stations.contains(station))
-            return null;
-        List<Station> stations = getStations();
-        return Collections.unmodifiableList(stations.subList(stations.indexOf(station) + 1, stations.size()));
+    void addStation(Station station, LocalTime time) throws NonUniqueStationAtServiceException {
+        Stops stops = _stops;
+        if (stops.getPosition(station) >= 0)
+            throw new NonUniqueStationAtServiceException(station.getName(), _id);
+        int minutes = Timetable.toMinutes(time);
+        int[] oldMinutes = stops._minutes;
+        int position = oldMinutes.length;
+        while (position > 0 && oldMinutes[position - 1] > minutes)
+            position--;
+
+        int[] newMinutes = new int[oldMinutes.length + 1];
+        System.arraycopy(oldMinutes, 0, newMinutes, 0, position);
+        System.arraycopy(oldMinutes, position, newMinutes, position + 1, oldMinutes.length - position);
+        newMinutes[position] = minutes;
+        List<Station> newStations = new ArrayList<>(stops._stations);
+        newStations.add(position, station);
+        _stops = new Stops(newStations, newMinutes, Stops.rate(_cost, newMinutes));
     }
 
     /**
-     * Adds a station to the service's list of stations.
+     * Adds stations to the service's list of stations, keeping it sorted by time (as if they were added one
+     * at a time), and publishes the new stations only once.
+     * The stations must be distinct and not already in the service.
      *
-     * @param station to add.
+     * @param stations to add.
+     * @param minutes of the service at each station.
+     * @param count of stations to add (the first ones of the arrays).
      */
-    void addStation(Station station) {
-        _stations.add(station);
-        _sorted = false;
+    void addStations(Station[] stations, int[] minutes, int count) {
+        Stops stops = _stops;
+        int size = stops._minutes.length;
+        int[] newMinutes = Arrays.copyOf(stops._minutes, size + count);
+        Station[] newStations = stops._stations.toArray(new Station[size + count]);
+        for (int i = 0; i < count; i++, size++) {
+            int position = size;
+            for (; position > 0 && newMinutes[position - 1] > minutes[i]; position--) {
+                newMinutes[position] = newMinutes[position - 1];
+                newStations[position] = newStations[position - 1];
+            }
+            newMinutes[position] = minutes[i];
+            newStations[position] = stations[i];
+        }
+        _stops = new Stops(new ArrayList<>(Arrays.asList(newStations)), newMinutes, Stops.rate(_cost, newMinutes));
     }
 
     /**
@@ -189,4 +256,68 @@ public class Service implements Serializable {
             string.append("\n").append(station.printStation(this));
         return string.toString();
     }
+
+    /**
+     * The immutable stops of a service: its stations sorted by time, their times and their positions,
+     * and the cost per minute of the service.
+     */
+    private static class Stops {
+
+        /**
+         * Stations, sorted by time.
+         */
+        private final List<Station> _stations;
+
+        /**
+         * Time (minutes of the day) at each station.
+         */
+        private final int[] _minutes;
+
+        /**
+         * Cost of each minute of the service.
+         */
+        private final double _rate;
+
+        /**
+         * Position of each station.
+         */
+        private final Map<Station, Integer> _positions;
+
+        /**
+         * Constructor.
+         *
+         * @param stations sorted by time.
+         * @param minutes at each station.
+         * @param rate cost of each minute of the service.
+         */
+        Stops(List<Station> stations, int[] minutes, double rate) {
+            _stations = Collections.unmodifiableList(stations);
+            _minutes = minutes;
+            _rate = rate;
+            _positions = new HashMap<>();
+            for (int i = 0; i < stations.size(); i++)
+                _positions.put(stations.get(i), i);
+        }
+
+        /**
+         * Returns the cost of each minute of a service with the given cost and times.
+         */
+        static double rate(double cost, int[] minutes) {
+            return minutes.length == 0 ? 0 : cost / (minutes[minutes.length - 1] - minutes[0]);
+        }
+
+        /**
+         * Returns the position of a station, or -1 if it isn't one of the stops.
+         */
+        int getPosition(Station station) {
+            return _positions.getOrDefault(station, -1);
+        }
+
+        /**
+         * Returns the duration (in minutes) from the first to the last station.
+         */
+        long getDuration() {
+            return _minutes[_minutes.length - 1] - _minutes[0];
+        }
+    }
 }
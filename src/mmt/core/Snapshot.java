@@ -0,0 +1,797 @@
+package mmt.core;
+
+import mmt.core.exceptions.NonUniqueServiceIdException;
+import mmt.core.exceptions.NonUniqueStationAtServiceException;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * A Snapshot is the binary file format where the state of a TrainCompany is saved.
+ * All the values are big-endian, and the file is made of:
+ * <ul>
+ *     <li>a header: the magic number, the version of the format, and the generation of the snapshot
+ *     (a random number that identifies it, so a {@link Journal} is only replayed on the snapshot it follows);</li>
+ *     <li>the string table: the number of strings and, for each one, its length and UTF-8 bytes (each name
+ *     is written once, even if it is the name of a station and of a passenger);</li>
+ *     <li>the loyalty policy: window size, frequent threshold and special threshold;</li>
+ *     <li>the stations, by index: the string index of each name;</li>
+ *     <li>the services, by index: id, cost, number of stops, and the station index and time (minutes of the day)
+ *     of each stop;</li>
+ *     <li>the passenger index, by id: the number of passengers and, for each one, the string index of the name
+ *     and the offset of its record in the file;</li>
+ *     <li>the passenger records: the value spent, and the itineraries, each with its epoch day, number of trips,
+ *     the service index of each trip and the station index of each stop.</li>
+ * </ul>
+ * Snapshots are read by mapping the file in memory: everything but the passenger records is read at once,
+ * and each passenger is only read when it is first used.
+ *
+ * @author Grupo 38
+ * @author João Galinho (87667)
+ * @author Filipe Henriques (87653)
+ * @version 1.0
+ */
+class Snapshot {
+
+    /**
+     * Magic number at the start of every snapshot ("MMTS").
+     */
+    private static final int MAGIC = 0x4D4D5453;
+
+    /**
+     * Version of the format written.
+     */
+    private static final int VERSION = 3;
+
+    /**
+     * Size of the buffer used to write the file.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Size (in bytes, as a power of 2) of each part of the file mapped in memory.
+     */
+    private static final int CHUNK_BITS = 30;
+
+    /**
+     * This class only has static methods.
+     */
+    private Snapshot() {
+    }
+
+    /**
+     * Writes the state of a TrainCompany to a file.
+     * The snapshot is written to a temporary file that then replaces the file, so the TrainCompany can be
+     * saved to the snapshot it was loaded from.
+     *
+     * @param company to save.
+     * @param filename of the file to write.
+     * @param generation of the snapshot.
+     * @throws IOException if an I/O error occurs while writing.
+     */
+    static void write(TrainCompany company, String filename, long generation) throws IOException {
+        write(new View(company, generation), filename);
+    }
+
+    /**
+     * Writes a view of the state of a TrainCompany to a file.
+     * The view can be written by any thread, while the TrainCompany keeps changing.
+     *
+     * @param view of the TrainCompany to save.
+     * @param filename of the file to write.
+     * @throws IOException if an I/O error occurs while writing.
+     */
+    static void write(View view, String filename) throws IOException {
+        writeTemporary(view, filename);
+        install(filename);
+    }
+
+    /**
+     * Writes a view of the state of a TrainCompany to the temporary file of a snapshot (the name of the snapshot
+     * followed by ".tmp"), which only replaces the snapshot when it is installed.
+     * The view can be written by any thread, while the TrainCompany keeps changing.
+     *
+     * @param view of the TrainCompany to save.
+     * @param filename of the snapshot.
+     * @throws IOException if an I/O error occurs while writing.
+     */
+    static void writeTemporary(View view, String filename) throws IOException {
+        try (FileChannel channel = new FileOutputStream(filename + ".tmp").getChannel()) {
+            write(view, new Output(channel));
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Replaces a snapshot with its temporary file, written by {@link #writeTemporary}.
+     *
+     * @param filename of the snapshot.
+     * @throws IOException if an I/O error occurs while replacing the snapshot.
+     */
+    static void install(String filename) throws IOException {
+        Path file = Paths.get(filename);
+        Path temporary = Paths.get(filename + ".tmp");
+        try {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Writes a view of the state of a TrainCompany.
+     *
+     * @param view of the TrainCompany to save.
+     * @param out where the snapshot is written.
+     * @throws IOException if an I/O error occurs while writing.
+     */
+    private static void write(View view, Output out) throws IOException {
+        out.putInt(MAGIC);
+        out.putInt(VERSION);
+        out.putLong(view._generation);
+
+        Timetable timetable = view._timetable;
+        int stations = timetable.getStationCount();
+        int passengers = view._names.length;
+        Map<String, Integer> strings = new HashMap<>();
+        for (int index = 0; index < stations; index++)
+            strings.put(timetable.getStation(index).getName(), index);
+        int[] names = new int[passengers];
+        for (int id = 0; id < passengers; id++)
+            names[id] = strings.computeIfAbsent(view._names[id], name -> strings.size());
+        out.putInt(strings.size());
+        for (int index = 0; index < stations; index++)
+            out.putString(timetable.getStation(index).getName());
+        for (int id = 0, next = stations; id < passengers; id++)
+            if (names[id] == next) {
+                out.putString(view._names[id]);
+                next++;
+            }
+
+        LoyaltyPolicy policy = view._loyaltyPolicy;
+        out.putInt(policy.getWindowSize());
+        out.putDouble(policy.getFrequentThreshold());
+        out.putDouble(policy.getSpecialThreshold());
+
+        out.putInt(stations);
+        for (int name = 0; name < stations; name++)
+            out.putInt(name);
+
+        out.putInt(timetable.getServiceCount());
+        for (int index = 0; index < timetable.getServiceCount(); index++) {
+            Service service = timetable.getService(index);
+            int first = timetable.getFirstStop(index);
+            int end = timetable.getEndStop(index);
+            out.putInt(service.getId());
+            out.putDouble(service.getCost());
+            out.putInt(end - first);
+            for (int stop = first; stop < end; stop++)
+                out.putInt(timetable.getStopStation(stop));
+            for (int stop = first; stop < end; stop++)
+                out.putInt(timetable.getStopMinutes(stop));
+        }
+
+        out.putInt(passengers);
+        long offset = out.getPosition() + (long) passengers * (Integer.BYTES + Long.BYTES);
+        for (int id = 0; id < passengers; id++) {
+            out.putInt(names[id]);
+            out.putLong(offset);
+            List<Itinerary> itineraries = view._itineraries.get(id);
+            offset += itineraries != null ? getRecordSize(itineraries) : view._snapshotPassengers.getRecordSize(id);
+        }
+        for (int id = 0; id < passengers; id++) {
+            List<Itinerary> itineraries = view._itineraries.get(id);
+            if (itineraries != null)
+                writeRecord(view._spent[id], itineraries, out);
+            else
+                view._snapshotPassengers.copyRecord(id, out);
+        }
+        out.flush();
+    }
+
+    /**
+     * Returns the size of the record of a passenger.
+     *
+     * @param itineraries of the passenger.
+     * @return the size of the passenger's record, in bytes.
+     */
+    private static long getRecordSize(List<Itinerary> itineraries) {
+        long size = Double.BYTES + Integer.BYTES;
+        for (Itinerary itinerary : itineraries)
+            size += 3 * Integer.BYTES + 2L * Integer.BYTES * itinerary.getTripCount();
+        return size;
+    }
+
+    /**
+     * Writes the record of a passenger.
+     *
+     * @param spent value spent by the passenger.
+     * @param itineraries of the passenger.
+     * @param out where the record is written.
+     * @throws IOException if an I/O error occurs while writing.
+     */
+    private static void writeRecord(double spent, List<Itinerary> itineraries, Output out) throws IOException {
+        out.putDouble(spent);
+        out.putInt(itineraries.size());
+        for (Itinerary itinerary : itineraries) {
+            out.putInt((int) itinerary.getDay().toEpochDay());
+            out.putInt(itinerary.getTripCount());
+            for (int trip = 0; trip < itinerary.getTripCount(); trip++)
+                out.putInt(itinerary.getServiceIndex(trip));
+            for (int stop = 0; stop <= itinerary.getTripCount(); stop++)
+                out.putInt(itinerary.getStationIndex(stop));
+        }
+    }
+
+    /**
+     * Reads the state of a TrainCompany from a file, in a single pass over the mapped file.
+     * The passengers are only read when they are first used.
+     *
+     * @param filename of the file to read.
+     * @param company to copy the state to (empty).
+     * @return the generation of the snapshot.
+     * @throws java.io.FileNotFoundException if the file doesn't exist.
+     * @throws IOException if an I/O error occurs while reading, or the file isn't a valid snapshot.
+     */
+    static long read(String filename, TrainCompany company) throws IOException {
+        Source source;
+        try (FileChannel channel = new FileInputStream(filename).getChannel()) {
+            source = new Source(channel);
+        }
+        try {
+            Input in = source.getInput(0);
+            long generation = readHeader(in, filename);
+
+            String[] strings = new String[in.getInt()];
+            for (int i = 0; i < strings.length; i++)
+                strings[i] = in.getString();
+
+            company.setLoyaltyPolicy(new LoyaltyPolicy(in.getInt(), in.getDouble(), in.getDouble()));
+
+            TrainCompany.BulkLoad load = company.startBulkLoad();
+            Station[] stations = new Station[in.getInt()];
+            for (int i = 0; i < stations.length; i++)
+                stations[i] = load.getOrAddStation(strings[in.getInt()]);
+
+            Service[] services = new Service[in.getInt()];
+            for (int i = 0; i < services.length; i++) {
+                int id = in.getInt();
+                double cost = in.getDouble();
+                Station[] stops = new Station[in.getInt()];
+                for (int stop = 0; stop < stops.length; stop++)
+                    stops[stop] = stations[in.getInt()];
+                int[] minutes = new int[stops.length];
+                for (int stop = 0; stop < minutes.length; stop++)
+                    minutes[stop] = in.getInt();
+                services[i] = load.addService(id, cost, stops, minutes);
+            }
+            load.commit();
+
+            String[] names = new String[in.getInt()];
+            long[] offsets = new long[names.length + 1];
+            for (int id = 0; id < names.length; id++) {
+                names[id] = strings[in.getInt()];
+                offsets[id] = in.getLong();
+            }
+            offsets[names.length] = source.size();
+            company.setSnapshotPassengers(new Passengers(source, names, offsets, services, stations));
+            company.markSaved();
+            return generation;
+        } catch (NonUniqueServiceIdException | NonUniqueStationAtServiceException
+            | IllegalArgumentException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new IOException("corrupt snapshot " + filename, e);
+        }
+    }
+
+    /**
+     * Reads the header of a snapshot.
+     *
+     * @param in input to read from.
+     * @param filename of the snapshot.
+     * @return the generation of the snapshot.
+     * @throws IOException if the header isn't valid.
+     */
+    private static long readHeader(Input in, String filename) throws IOException {
+        if (in.getInt() != MAGIC)
+            throw new IOException(filename + " is not a snapshot");
+        int version = in.getInt();
+        if (version != VERSION)
+            throw new IOException("unsupported snapshot version " + version + " in " + filename);
+        return in.getLong();
+    }
+
+    /**
+     * Reads an itinerary.
+     *
+     * @param in input to read from.
+     * @param services by index.
+     * @param stations by index.
+     * @param builder used to build the itinerary.
+     * @return the itinerary read.
+     * @throws IOException if the itinerary isn't valid.
+     */
+    private static Itinerary readItinerary(Input in, Service[] services, Station[] stations, Itinerary.Builder builder)
+        throws IOException {
+        builder.reset(LocalDate.ofEpochDay(in.getInt()));
+        Service[] trips = new Service[in.getInt()];
+        for (int trip = 0; trip < trips.length; trip++)
+            trips[trip] = services[in.getInt()];
+        Station start = stations[in.getInt()];
+        for (Service trip : trips) {
+            Station end = stations[in.getInt()];
+            if (!builder.addTripEnd(trip, start, end))
+                throw new IOException("invalid itinerary in snapshot");
+            start = end;
+        }
+        return builder.build();
+    }
+
+    /**
+     * A consistent view of the state of a TrainCompany, to be saved while the TrainCompany keeps changing.
+     * Creating a view copies nothing that grows with the bookings: the stations and services are kept as the
+     * published (immutable) timetable, the loaded passengers as references to their (immutable) names and lists
+     * of itineraries, with the values they spent, and the passengers still in a snapshot are copied from it.
+     */
+    static class View {
+
+        /**
+         * Generation of the snapshot to write.
+         */
+        private final long _generation;
+
+        /**
+         * Stations and services.
+         */
+        private final Timetable _timetable;
+
+        /**
+         * Loyalty policy.
+         */
+        private final LoyaltyPolicy _loyaltyPolicy;
+
+        /**
+         * Name of each passenger, by id.
+         */
+        private final String[] _names;
+
+        /**
+         * Value spent by each passenger, by id.
+         */
+        private final double[] _spent;
+
+        /**
+         * Itineraries of each passenger, by id (null if the passenger is still in the snapshot).
+         */
+        private final List<List<Itinerary>> _itineraries;
+
+        /**
+         * Passengers of the snapshot the TrainCompany was read from (null if none).
+         */
+        private final Passengers _snapshotPassengers;
+
+        /**
+         * Constructor.
+         * Must be called by the thread that changes the TrainCompany.
+         *
+         * @param company to save.
+         * @param generation of the snapshot to write.
+         */
+        View(TrainCompany company, long generation) {
+            _generation = generation;
+            _timetable = company.getTimetable();
+            _loyaltyPolicy = company.getLoyaltyPolicy();
+            _snapshotPassengers = company.getSnapshotPassengers();
+            int passengers = company.getPassengers().size();
+            _names = new String[passengers];
+            _spent = new double[passengers];
+            _itineraries = new ArrayList<>(passengers);
+            for (int id = 0; id < passengers; id++) {
+                Passenger passenger = company.getLoadedPassenger(id);
+                if (passenger != null) {
+                    _names[id] = passenger.getName();
+                    _spent[id] = passenger.getSpent();
+                    _itineraries.add(passenger.getItineraries());
+                } else {
+                    _names[id] = _snapshotPassengers.getName(id);
+                    _itineraries.add(null);
+                }
+            }
+        }
+    }
+
+    /**
+     * The passengers of a snapshot, whose records are read when needed.
+     */
+    static class Passengers {
+
+        /**
+         * Snapshot mapped in memory.
+         */
+        private final Source _source;
+
+        /**
+         * Name of each passenger, by id.
+         */
+        private final String[] _names;
+
+        /**
+         * Offset of the record of each passenger, by id (and the end of the last record).
+         */
+        private final long[] _offsets;
+
+        /**
+         * Services of the snapshot, by index.
+         */
+        private final Service[] _services;
+
+        /**
+         * Stations of the snapshot, by index.
+         */
+        private final Station[] _stations;
+
+        /**
+         * Constructor.
+         *
+         * @param source snapshot mapped in memory.
+         * @param names of the passengers.
+         * @param offsets of the records of the passengers.
+         * @param services of the snapshot.
+         * @param stations of the snapshot.
+         */
+        Passengers(Source source, String[] names, long[] offsets, Service[] services, Station[] stations) {
+            _source = source;
+            _names = names;
+            _offsets = offsets;
+            _services = services;
+            _stations = stations;
+        }
+
+        /**
+         * Returns the number of passengers.
+         *
+         * @return the number of passengers.
+         */
+        int size() {
+            return _names.length;
+        }
+
+        /**
+         * Returns the name of a passenger (as saved in the snapshot).
+         *
+         * @param id of the passenger.
+         * @return the passenger's name.
+         */
+        String getName(int id) {
+            return _names[id];
+        }
+
+        /**
+         * Returns the size of the record of a passenger.
+         *
+         * @param id of the passenger.
+         * @return the size of the passenger's record, in bytes.
+         */
+        long getRecordSize(int id) {
+            return _offsets[id + 1] - _offsets[id];
+        }
+
+        /**
+         * Reads a passenger from its record.
+         *
+         * @param id of the passenger.
+         * @param loyaltyPolicy of the passenger.
+         * @return the passenger.
+         * @throws UncheckedIOException if the record isn't valid.
+         */
+        Passenger read(int id, LoyaltyPolicy loyaltyPolicy) {
+            try {
+                Input in = _source.getInput(_offsets[id]);
+                Passenger passenger = new Passenger(id, _names[id], loyaltyPolicy);
+                passenger.restoreSpent(in.getDouble());
+                int itineraries = in.getInt();
+                Itinerary.Builder builder = new Itinerary.Builder();
+                for (int i = 0; i < itineraries; i++)
+                    passenger.restoreItinerary(readItinerary(in, _services, _stations, builder));
+                passenger.markSaved();
+                return passenger;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (IndexOutOfBoundsException | NegativeArraySizeException e) {
+                throw new UncheckedIOException(new IOException("corrupt record of passenger " + id, e));
+            }
+        }
+
+        /**
+         * Copies the record of a passenger, as it is, to another snapshot.
+         *
+         * @param id of the passenger.
+         * @param out where the record is written.
+         * @throws IOException if an I/O error occurs while writing.
+         */
+        void copyRecord(int id, Output out) throws IOException {
+            _source.copy(_offsets[id], getRecordSize(id), out);
+        }
+    }
+
+    /**
+     * A snapshot file mapped in memory, in chunks of up to 2^CHUNK_BITS bytes.
+     */
+    private static class Source {
+
+        /**
+         * Parts of the file mapped in memory.
+         */
+        private final MappedByteBuffer[] _chunks;
+
+        /**
+         * Size of the file.
+         */
+        private final long _size;
+
+        /**
+         * Constructor.
+         * Maps the whole file (which can then be closed).
+         *
+         * @param channel of the file.
+         * @throws IOException if an I/O error occurs while mapping the file.
+         */
+        Source(FileChannel channel) throws IOException {
+            _size = channel.size();
+            _chunks = new MappedByteBuffer[(int) ((_size + (1L << CHUNK_BITS) - 1) >>> CHUNK_BITS)];
+            for (int i = 0; i < _chunks.length; i++) {
+                long start = (long) i << CHUNK_BITS;
+                _chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(1L << CHUNK_BITS, _size - start));
+            }
+        }
+
+        /**
+         * Returns the size of the file.
+         */
+        long size() {
+            return _size;
+        }
+
+        /**
+         * Returns an input that reads the file from the given offset.
+         */
+        Input getInput(long offset) {
+            return new Input(this, offset);
+        }
+
+        /**
+         * Copies bytes of the file to an output.
+         */
+        void copy(long offset, long length, Output out) throws IOException {
+            if (offset < 0 || offset + length > _size)
+                throw new IOException("unexpected end of snapshot");
+            while (length > 0) {
+                ByteBuffer chunk = _chunks[(int) (offset >>> CHUNK_BITS)];
+                int start = (int) (offset & ((1L << CHUNK_BITS) - 1));
+                int bytes = (int) Math.min(length, chunk.limit() - start);
+                out.putBytes(chunk.slice(start, bytes));
+                offset += bytes;
+                length -= bytes;
+            }
+        }
+    }
+
+    /**
+     * Reader of values from a mapped snapshot, from a given offset.
+     */
+    private static class Input {
+
+        /**
+         * Snapshot being read.
+         */
+        private final Source _source;
+
+        /**
+         * Offset of the next value.
+         */
+        private long _position;
+
+        /**
+         * Constructor.
+         *
+         * @param source snapshot to read.
+         * @param position offset of the first value.
+         */
+        Input(Source source, long position) {
+            _source = source;
+            _position = position;
+        }
+
+        /**
+         * Returns the chunk with the next bytes, making sure the file has them.
+         */
+        private ByteBuffer require(int bytes) throws IOException {
+            if (_position < 0 || _position + bytes > _source._size)
+                throw new IOException("unexpected end of snapshot");
+            return _source._chunks[(int) (_position >>> CHUNK_BITS)];
+        }
+
+        /**
+         * Returns the offset of the next value in its chunk.
+         */
+        private int offset() {
+            return (int) (_position & ((1L << CHUNK_BITS) - 1));
+        }
+
+        /**
+         * Reads a value split between two chunks, byte by byte.
+         */
+        private long getBytes(int bytes) throws IOException {
+            long value = 0;
+            for (int i = 0; i < bytes; i++) {
+                value = value << 8 | (require(1).get(offset()) & 0xFF);
+                _position++;
+            }
+            return value;
+        }
+
+        /**
+         * Reads an int.
+         */
+        int getInt() throws IOException {
+            ByteBuffer chunk = require(Integer.BYTES);
+            if (offset() + Integer.BYTES > chunk.limit())
+                return (int) getBytes(Integer.BYTES);
+            int value = chunk.getInt(offset());
+            _position += Integer.BYTES;
+            return value;
+        }
+
+        /**
+         * Reads a long.
+         */
+        long getLong() throws IOException {
+            ByteBuffer chunk = require(Long.BYTES);
+            if (offset() + Long.BYTES > chunk.limit())
+                return getBytes(Long.BYTES);
+            long value = chunk.getLong(offset());
+            _position += Long.BYTES;
+            return value;
+        }
+
+        /**
+         * Reads a double.
+         */
+        double getDouble() throws IOException {
+            return Double.longBitsToDouble(getLong());
+        }
+
+        /**
+         * Reads a string, written as its length and its UTF-8 bytes.
+         */
+        String getString() throws IOException {
+            byte[] bytes = new byte[getInt()];
+            require(bytes.length);
+            for (int offset = 0; offset < bytes.length; ) {
+                ByteBuffer chunk = require(1);
+                int length = Math.min(chunk.limit() - offset(), bytes.length - offset);
+                chunk.get(offset(), bytes, offset, length);
+                offset += length;
+                _position += length;
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Buffered writer of values to a channel.
+     */
+    private static class Output {
+
+        /**
+         * Channel where the values are written.
+         */
+        private final FileChannel _channel;
+
+        /**
+         * Buffer of the values not written yet.
+         */
+        private final ByteBuffer _buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        /**
+         * Number of bytes written (including the ones still in the buffer).
+         */
+        private long _position;
+
+        /**
+         * Constructor.
+         *
+         * @param channel to write to.
+         */
+        Output(FileChannel channel) {
+            _channel = channel;
+        }
+
+        /**
+         * Returns the number of bytes written.
+         */
+        long getPosition() {
+            return _position;
+        }
+
+        /**
+         * Makes room in the buffer for the given number of bytes.
+         */
+        private void reserve(int bytes) throws IOException {
+            if (_buffer.remaining() < bytes)
+                flush();
+            _position += bytes;
+        }
+
+        /**
+         * Writes an int.
+         */
+        void putInt(int value) throws IOException {
+            reserve(Integer.BYTES);
+            _buffer.putInt(value);
+        }
+
+        /**
+         * Writes a long.
+         */
+        void putLong(long value) throws IOException {
+            reserve(Long.BYTES);
+            _buffer.putLong(value);
+        }
+
+        /**
+         * Writes a double.
+         */
+        void putDouble(double value) throws IOException {
+            reserve(Double.BYTES);
+            _buffer.putDouble(value);
+        }
+
+        /**
+         * Writes a string, as its length and its UTF-8 bytes.
+         */
+        void putString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            putBytes(ByteBuffer.wrap(bytes));
+        }
+
+        /**
+         * Writes the remaining bytes of a buffer.
+         */
+        void putBytes(ByteBuffer bytes) throws IOException {
+            while (bytes.hasRemaining()) {
+                if (!_buffer.hasRemaining())
+                    flush();
+                int length = Math.min(_buffer.remaining(), bytes.remaining());
+                ByteBuffer part = bytes.duplicate();
+                part.limit(part.position() + length);
+                _buffer.put(part);
+                bytes.position(bytes.position() + length);
+                _position += length;
+            }
+        }
+
+        /**
+         * Writes all the buffered values to the channel.
+         */
+        void flush() throws IOException {
+            _buffer.flip();
+            while (_buffer.hasRemaining())
+                _channel.write(_buffer);
+            _buffer.clear();
+        }
+    }
+}
@@ -1,45 +1,38 @@
 package mmt.core;
 
-import mmt.core.exceptions.NonUniqueStationAtServiceException;
-
-import java.io.Serializable;
 import java.time.LocalTime;
 import java.util.*;
 
 /**
- * A Station has a name and a map of Services.
+ * A Station has a name, and the times of the Services that go through it (kept by the services).
  *
  * @author Grupo 38
  * @author João Galinho (87667)
  * @author Filipe Henriques (87653)
  * @version 1.0
  */
-public class Station implements Serializable {
+public class Station {
 
     /**
-     * Serial number for serialization.
+     * Dense index of the station in the TrainCompany (0, 1, 2, ...).
      */
-    private static final long serialVersionUID = -2327971238328157083L;
+    private final int _index;
 
     /**
      * Name of the station.
      */
     private String _name;
 
-    /**
-     * Times of the stations services.
-     */
-    private Map<Service, LocalTime> _times;
-
     /**
      * Constructor.
      * Creates a Station with all its attributes.
      *
+     * @param index of the station to create in the TrainCompany.
      * @param name of the station to create.
      */
-    Station(String name) {
+    Station(int index, String name) {
+        _index = index;
         _name = name;
-        _times = new HashMap<>();
     }
 
     /**
@@ -52,12 +45,12 @@ public class Station implements Serializable {
     }
 
     /**
-     * Returns the services of the station.
+     * Returns the index of the station in the TrainCompany.
      *
-     * @return the station's services.
+     * @return the station's index.
      */
-    List<Service> getServices() {
-        return new ArrayList<>(_times.keySet());
+    int getIndex() {
+        return _index;
     }
 
     /**
@@ -67,20 +60,37 @@ public class Station implements Serializable {
      * @return time of the service given as parameter.
      */
     public LocalTime getTime(Service service) {
-        return _times.get(service);
+        return service.getTime(this);
     }
 
     /**
-     * Adds a service to the station's services.
+     * Merges services into a list of services sorted by their time at the station (and by id).
+     * The added services are sorted by a key with their time and their order (so they must be sorted by id),
+     * and the time of each service already in the list is looked up only once.
      *
-     * @param service to add to the station.
-     * @param time of the service to add.
-     * @throws NonUniqueStationAtServiceException if theres already a station with the same name as the given one.
+     * @param sorted services, sorted by their time at the station (and by id).
+     * @param added services to merge, sorted by id.
+     * @param minutes of each added service at the station.
+     * @return a new list with all the services, sorted by their time at the station (and by id).
      */
-    void addService(Service service, LocalTime time) throws NonUniqueStationAtServiceException {
-        if (_times.containsKey(service))
-            throw new NonUniqueStationAtServiceException(getName(), service.getId());
-        _times.put(service, time);
+    List<Service> mergeServices(List<Service> sorted, List<Service> added, int[] minutes) {
+        long[] keys = new long[added.size()];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = (long) minutes[i] << Integer.SIZE | i;
+        Arrays.sort(keys);
+
+        List<Service> services = new ArrayList<>(sorted.size() + keys.length);
+        int next = 0;
+        for (Service service : sorted) {
+            long time = service.getMinutes(service.getPosition(this));
+            while (next < keys.length && ((keys[next] >> Integer.SIZE) < time || (keys[next] >> Integer.SIZE) == time
+                    && added.get((int) keys[next]).getId() < service.getId()))
+                services.add(added.get((int) keys[next++]));
+            services.add(service);
+        }
+        while (next < keys.length)
+            services.add(added.get((int) keys[next++]));
+        return services;
     }
 
     /**
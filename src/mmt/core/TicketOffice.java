@@ -6,8 +6,12 @@ import java.io.*;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.time.format.DateTimeParseException;
+import java.util.Collection;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * A TicketOffice has a TrainCompany and a file that will were all the status are saved or loaded from.
@@ -29,6 +33,58 @@ public class TicketOffice {
      */
     private String _file;
 
+    /**
+     * Strategy used to search itineraries.
+     */
+    private SearchStrategy _searchStrategy = SearchStrategy.BY_SERVICE;
+
+    /**
+     * Name of the snapshot file the TrainCompany was last saved to or loaded from (null if none).
+     */
+    private String _snapshotFile;
+
+    /**
+     * Generation of that snapshot.
+     */
+    private long _generation;
+
+    /**
+     * Size of the journal of that snapshot at the last save (the following segments have the changes not saved
+     * yet, which are discarded if the TrainCompany is replaced or closed without saving them).
+     */
+    private long _savedJournalSize;
+
+    /**
+     * Whether saves are written in the background.
+     */
+    private boolean _backgroundSave;
+
+    /**
+     * Whether files are imported in parallel.
+     */
+    private boolean _parallelImport;
+
+    /**
+     * Last snapshot written in the background (completed if none is being written).
+     */
+    private CompletableFuture<Void> _save = CompletableFuture.completedFuture(null);
+
+    /**
+     * Name of the file of the snapshot being written in the background (null if none).
+     */
+    private String _savingFile;
+
+    /**
+     * Generation of the snapshot being written in the background.
+     */
+    private long _savingGeneration;
+
+    /**
+     * Size of the journal when the state of the snapshot being written in the background was saved
+     * (or -1 if the snapshot is written to another file).
+     */
+    private long _savingJournalSize;
+
     /**
      * Constructor.
      * Creates a TicketOffice with all its attributes.
@@ -47,11 +103,11 @@ public class TicketOffice {
     }
 
     /**
-     * Returns a list of services of the TrainCompany associated with the TicketOffice.
+     * Returns the services of the TrainCompany associated with the TicketOffice, ordered by id.
      *
-     * @return a list of services of the TrainCompany associated with the TicketOffice.
+     * @return an unmodifiable view of the services of the TrainCompany associated with the TicketOffice.
      */
-    public List<Service> getServices() {
+    public Collection<Service> getServices() {
         return _trainCompany.getServices();
     }
 
@@ -59,30 +115,22 @@ public class TicketOffice {
      * Returns a list of services which the first station is the one given as parameter.
      *
      * @param stationName name of the first station.
-     * @return a list of services which the first station is the one given as parameter.
+     * @return a list of services which the first station is the one given as parameter, sorted by departure time.
      * @throws NoSuchStationNameException if there is no station with the name given as parameter.
      */
     public List<Service> getServiceStart(String stationName) throws NoSuchStationNameException {
-        Station station = _trainCompany.getStation(stationName);
-        return _trainCompany.getServices()
-                .stream()
-                .filter(s -> s.getFirstStation().equals(station))
-                .collect(Collectors.toList());
+        return _trainCompany.getServicesStartingAt(stationName);
     }
 
     /**
      * Returns a list of services which the last station is the one given as parameter.
      *
      * @param stationName name of the last station.
-     * @return a list of services which the last station is the one given as parameter.
+     * @return a list of services which the last station is the one given as parameter, sorted by arrival time.
      * @throws NoSuchStationNameException if there is no station with the name given as parameter.
      */
     public List<Service> getServiceEnd(String stationName) throws NoSuchStationNameException {
-        Station station = _trainCompany.getStation(stationName);
-        return _trainCompany.getServices()
-                .stream()
-                .filter(s -> s.getLastStation().equals(station))
-                .collect(Collectors.toList());
+        return _trainCompany.getServicesEndingAt(stationName);
     }
 
     /**
@@ -97,11 +145,11 @@ public class TicketOffice {
     }
 
     /**
-     * Returns a list of all the passengers of the TrainCompany that belongs to the TicketOffice.
+     * Returns all the passengers of the TrainCompany that belongs to the TicketOffice, ordered by id.
      *
-     * @return a list of all the passengers of the TrainCompany that belongs to the TicketOffice.
+     * @return an unmodifiable view of the passengers of the TrainCompany that belongs to the TicketOffice.
      */
-    public List<Passenger> getPassengers() {
+    public Collection<Passenger> getPassengers() {
         return _trainCompany.getPassengers();
     }
 
@@ -116,6 +164,17 @@ public class TicketOffice {
         return _trainCompany.getPassengerById(id);
     }
 
+    /**
+     * Returns a passenger with the name given as parameter.
+     *
+     * @param name of the passenger to return.
+     * @return a passenger with the name given as parameter.
+     * @throws NoSuchPassengerNameException if there is no passenger with the name given as parameter.
+     */
+    public Passenger getPassengerByName(String name) throws NoSuchPassengerNameException {
+        return _trainCompany.getPassengerByName(name);
+    }
+
     /**
      * Adds a passenger to the TrainCompany that belongs to the TicketOffice.
      *
@@ -124,6 +183,7 @@ public class TicketOffice {
      */
     public void newPassenger(String name) throws NonUniquePassengerNameException {
         _trainCompany.addPassenger(name);
+        logChanges();
     }
 
     /**
@@ -136,19 +196,21 @@ public class TicketOffice {
      */
     public void changePassengerName(int id, String newName) throws NoSuchPassengerIdException, NonUniquePassengerNameException {
         _trainCompany.changePassengerName(id, newName);
+        logChanges();
     }
 
     /**
-     * Returns a list of stations of the TrainCompany associated with the TicketOffice.
+     * Returns the stations of the TrainCompany associated with the TicketOffice, in the order they were added.
      *
-     * @return a list of stations of the TrainCompany associated with the TicketOffice.
+     * @return an unmodifiable view of the stations of the TrainCompany associated with the TicketOffice.
      */
-    public List<Station> getStations() {
+    public Collection<Station> getStations() {
         return _trainCompany.getStations();
     }
 
     public void addStation(String name) throws NonUniquePassengerNameException {
         _trainCompany.addStationName(name);
+        logChanges();
     }
 
     /**
@@ -156,22 +218,203 @@ public class TicketOffice {
      */
     public void reset() {
         _trainCompany.erasePassengers();
+        logChanges();
     }
 
     /**
      * Saves all the data into the TicketOffice's associated file.
+     * If the file holds the last snapshot of the TrainCompany, the changes are already in its journal (appended by
+     * the commands that made them), so only the ones not appended yet (if any) are; when the journal grows larger
+     * than the snapshot, both are merged into a new snapshot in the background.
      *
      * @throws MissingFileAssociationException if there is no file associated with the TicketOffice.
-     * @throws IOException if an I/O Error occurs during serialization.
+     * @throws IOException if an I/O Error occurs while writing.
      */
     public void save() throws MissingFileAssociationException, IOException {
         if (_file == null)
             throw new MissingFileAssociationException();
-        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(_file))) {
-            out.writeObject(_trainCompany);
+        awaitSave();
+        if (_file.equals(_snapshotFile))
+            appendChanges();
+        else
+            checkpoint();
+    }
+
+    /**
+     * Saves all the data into the TicketOffice's associated file, writing a new snapshot (if needed) in the
+     * background.
+     * The state saved is the one at the time of the call: the following changes are only saved by the next save.
+     *
+     * @return a future completed when the data is saved, or completed exceptionally with the IOException
+     *         if the snapshot can't be written.
+     * @throws MissingFileAssociationException if there is no file associated with the TicketOffice.
+     * @throws SaveInProgressException if the previous snapshot is still being written.
+     * @throws IOException if an I/O Error occurs while appending to the journal.
+     */
+    public CompletableFuture<Void> saveInBackground() throws MissingFileAssociationException, SaveInProgressException, IOException {
+        if (_file == null)
+            throw new MissingFileAssociationException();
+        if (!_save.isDone())
+            throw new SaveInProgressException(_savingFile);
+        awaitSave();
+        if (_file.equals(_snapshotFile))
+            return appendChanges();
+        _snapshotFile = null;
+        return writeInBackground();
+    }
+
+    /**
+     * Appends what changed since the last save (if anything) to the journal of the associated file, and starts
+     * merging them in the background if the journal is larger than the snapshot.
+     *
+     * @return a future completed when the merge (if any) is done.
+     * @throws IOException if an I/O Error occurs while appending to the journal.
+     */
+    private CompletableFuture<Void> appendChanges() throws IOException {
+        if (_trainCompany.hasChanges())
+            Journal.append(_trainCompany, _file, _generation);
+        _savedJournalSize = Journal.getSize(_file);
+        if (_savedJournalSize > new File(_file).length())
+            return writeInBackground();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Writes a new snapshot of the current state into the associated file in the background.
+     * If the file holds the snapshot the journal follows, the new snapshot is written to a temporary file, which
+     * only replaces it when the save is awaited (by the thread that changes the TrainCompany, which keeps
+     * appending its changes to the journal until then); otherwise, it replaces the file as soon as it is written.
+     * If the snapshot can't be written, the file keeps its previous snapshot and journal (if any).
+     *
+     * @return a future completed when the snapshot is written.
+     */
+    private CompletableFuture<Void> writeInBackground() {
+        String file = _file;
+        long generation = ThreadLocalRandom.current().nextLong();
+        Snapshot.View view = new Snapshot.View(_trainCompany, generation);
+        _trainCompany.markSaved();
+        boolean rebase = file.equals(_snapshotFile);
+        _savingFile = file;
+        _savingGeneration = generation;
+        _savingJournalSize = rebase ? Journal.getSize(file) : -1;
+        _save = CompletableFuture.runAsync(() -> {
+            try {
+                Snapshot.writeTemporary(view, file);
+                if (!rebase) {
+                    Snapshot.install(file);
+                    Journal.delete(file);
+                }
+            } catch (IOException ioe) {
+                throw new CompletionException(ioe);
+            }
+        }, task -> new Thread(task, "save " + file).start());
+        return _save;
+    }
+
+    /**
+     * Waits until the snapshot being written in the background (if any) is saved, and replaces the file with it.
+     * If it couldn't be written (which was reported by its future), the next save writes a new snapshot,
+     * unless the changes were already in the journal.
+     */
+    public void awaitSave() {
+        try {
+            _save.join();
+            if (_savingFile != null)
+                installSnapshot();
+        } catch (CompletionException e) {
+            // already reported to whoever started the save
+        } finally {
+            _savingFile = null;
+        }
+    }
+
+    /**
+     * Makes the snapshot written in the background the one the journal follows, with the changes made since
+     * the state it saves: if it replaces the snapshot the journal follows, it replaces the file now, with the
+     * segments appended to the journal meanwhile; otherwise, the changes not saved yet are appended.
+     * If the snapshot can't replace the file, the file keeps its previous snapshot and journal.
+     */
+    private void installSnapshot() {
+        String file = _savingFile;
+        long unsaved = _savingJournalSize >= 0 ? Journal.getSize(file) - _savingJournalSize : 0;
+        try {
+            if (_savingJournalSize >= 0) {
+                Journal.prepareRebase(file, _savingJournalSize, _savingGeneration);
+                Snapshot.install(file);
+            }
+        } catch (IOException ioe) {
+            return;
+        }
+        _snapshotFile = file;
+        _generation = _savingGeneration;
+        try {
+            if (_savingJournalSize >= 0)
+                Journal.finishRebase(file);
+            _savedJournalSize = Journal.getSize(file) - unsaved;
+            if (_trainCompany.hasChanges())
+                Journal.append(_trainCompany, file, _generation);
+        } catch (IOException ioe) {
+            // the journal may not follow the snapshot: the next save writes a new one
+            _snapshotFile = null;
+        }
+    }
+
+    /**
+     * Appends the changes just made to the TrainCompany to the journal of the associated file, forcing them to
+     * the disk before the command that made them returns, so they aren't lost if the program stops before the
+     * next save (a snapshot written in the background is installed first, if it is done).
+     * Changes made while the file doesn't hold the last snapshot of the TrainCompany are saved by the next save,
+     * as are the changes that can't be appended (the next save then writes a new snapshot).
+     */
+    private void logChanges() {
+        if (_savingFile != null && _save.isDone())
+            awaitSave();
+        if (_file == null || !_file.equals(_snapshotFile) || !_trainCompany.hasChanges())
+            return;
+        try {
+            Journal.append(_trainCompany, _file, _generation);
+        } catch (IOException ioe) {
+            _snapshotFile = null;
         }
     }
 
+    /**
+     * Returns true if saves are written in the background.
+     *
+     * @return true if saves are written in the background.
+     */
+    public boolean isBackgroundSave() {
+        return _backgroundSave;
+    }
+
+    /**
+     * Changes whether saves are written in the background.
+     *
+     * @param backgroundSave true to write saves in the background.
+     */
+    public void setBackgroundSave(boolean backgroundSave) {
+        _backgroundSave = backgroundSave;
+    }
+
+    /**
+     * Writes a new snapshot of all the data into the TicketOffice's associated file, and discards its journal.
+     *
+     * @throws MissingFileAssociationException if there is no file associated with the TicketOffice.
+     * @throws IOException if an I/O Error occurs while writing.
+     */
+    public void checkpoint() throws MissingFileAssociationException, IOException {
+        if (_file == null)
+            throw new MissingFileAssociationException();
+        awaitSave();
+        long generation = ThreadLocalRandom.current().nextLong();
+        Snapshot.write(_trainCompany, _file, generation);
+        _trainCompany.markSaved();
+        Journal.delete(_file);
+        _snapshotFile = _file;
+        _generation = generation;
+        _savedJournalSize = 0;
+    }
+
     /**
      * Associates a file with the TicketOffice.
      *
@@ -192,25 +435,142 @@ public class TicketOffice {
 
     /**
      * Loads all the data from the file TicketOffice's associated file.
+     * The changes not saved of the current TrainCompany are discarded.
      *
      * @param filename from which the data will be load from.
-     * @throws IOException if an I/O Error occurs during serialization.
-     * @throws ClassNotFoundException class of a serializable object cannot be found.
+     * @throws FileNotFoundException if the file doesn't exist.
+     * @throws IOException if an I/O Error occurs while reading, or the file isn't a valid snapshot.
      */
-    public void load(String filename) throws IOException, ClassNotFoundException {
-        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(filename))) {
-            _trainCompany = (TrainCompany) in.readObject();
+    public void load(String filename) throws IOException {
+        awaitSave();
+        TrainCompany trainCompany = new TrainCompany();
+        long generation = Snapshot.read(filename, trainCompany);
+        discardChanges();
+        try {
+            Journal.replay(filename, generation, trainCompany);
+        } catch (IOException ioe) {
+            // the changes not saved of the current TrainCompany were discarded: the next save writes a new snapshot
+            _snapshotFile = null;
+            throw ioe;
         }
+        _trainCompany = trainCompany;
+        _snapshotFile = filename;
+        _generation = generation;
+        _savedJournalSize = Journal.getSize(filename);
+    }
+
+    /**
+     * Closes the TicketOffice: waits until the snapshot being written in the background (if any) is saved, and
+     * discards the changes not saved.
+     */
+    public void close() {
+        awaitSave();
+        discardChanges();
+    }
+
+    /**
+     * Discards the changes not saved of the TrainCompany, which is being replaced or closed, removing them from
+     * the journal of its snapshot (if they can't be removed, they are replayed when the snapshot is opened).
+     */
+    private void discardChanges() {
+        if (_snapshotFile != null)
+            try {
+                Journal.truncate(_snapshotFile, _savedJournalSize);
+            } catch (IOException ioe) {
+                // kept in the journal
+            }
+    }
+
+    /**
+     * Returns the strategy used to search itineraries.
+     *
+     * @return the search strategy.
+     */
+    public SearchStrategy getSearchStrategy() {
+        return _searchStrategy;
+    }
+
+    /**
+     * Changes the strategy used to search itineraries.
+     *
+     * @param searchStrategy to use in the following searches.
+     */
+    public void setSearchStrategy(SearchStrategy searchStrategy) {
+        _searchStrategy = searchStrategy;
+    }
+
+    /**
+     * Changes the policy that defines the category of the passengers.
+     *
+     * @param loyaltyPolicy to use.
+     */
+    public void setLoyaltyPolicy(LoyaltyPolicy loyaltyPolicy) {
+        _trainCompany.setLoyaltyPolicy(loyaltyPolicy);
+        logChanges();
     }
 
     /**
      * Imports the data from the file to the TrainCompany associated with the TicketOffice.
+     * If the file is a directory, it is imported as a GTFS timetable (all its trips), and if its name ends with
+     * ".csv", its fields are separated by ',' instead of '|'.
      *
      * @param datafile from which the data will be imported from.
      * @throws ImportFileException if any error is found while parsing the file.
      */
     public void importFile(String datafile) throws ImportFileException {
-        new Parser().parseFile(datafile, _trainCompany);
+        if (new File(datafile).isDirectory())
+            importGtfs(datafile, null);
+        else
+            try {
+                new Parser(_parallelImport ? ForkJoinPool.commonPool() : null).parseFile(datafile, _trainCompany);
+            } finally {
+                logChanges();
+            }
+    }
+
+    /**
+     * Imports the trips of a GTFS timetable to the TrainCompany associated with the TicketOffice, as services.
+     *
+     * @param directory with the GTFS files.
+     * @param day whose trips are imported (or null to import all trips).
+     * @throws ImportFileException if any error is found while parsing the files.
+     */
+    public void importGtfs(String directory, LocalDate day) throws ImportFileException {
+        try {
+            new GtfsParser(day, GtfsParser.DEFAULT_COST_PER_MINUTE).parseDirectory(directory, _trainCompany);
+        } finally {
+            logChanges();
+        }
+    }
+
+    /**
+     * Exports the services, passengers and itineraries of the TrainCompany associated with the TicketOffice to a
+     * file that can be imported back, with fields separated by '|' (or by ',' if the name of the file ends
+     * with ".csv").
+     *
+     * @param datafile to which the data will be exported.
+     * @throws IOException if the file can't be written, or a name can't be written in its format.
+     */
+    public void exportFile(String datafile) throws IOException {
+        new Exporter(DataFormat.of(datafile)).export(_trainCompany, datafile);
+    }
+
+    /**
+     * Returns true if files are imported in parallel.
+     *
+     * @return true if files are imported in parallel.
+     */
+    public boolean isParallelImport() {
+        return _parallelImport;
+    }
+
+    /**
+     * Changes whether files are imported in parallel (decoding chunks of lines on all cores).
+     *
+     * @param parallelImport true to import files in parallel.
+     */
+    public void setParallelImport(boolean parallelImport) {
+        _parallelImport = parallelImport;
     }
 
     /**
@@ -251,11 +611,22 @@ public class TicketOffice {
             throw new BadTimeSpecificationException(strTime);
         }
 
-        passenger.setTempItineraries(_trainCompany.searchItineraries(departure, arrival, date, time));
+        passenger.setTempItineraries(_trainCompany.searchItineraries(departure, arrival, date, time, _searchStrategy));
 
         return passenger.getTempItineraries();
     }
 
+    /**
+     * Returns a string representing an itinerary, with its trips.
+     *
+     * @param itinerary to print.
+     * @param id that will be given to the itinerary.
+     * @return a string of trips to print.
+     */
+    public String printItinerary(Itinerary itinerary, int id) {
+        return itinerary.printItinerary(id, _trainCompany.getTimetable());
+    }
+
     /**
      * Permanently adds an itinerary from the passenger's temporary list.
      *
@@ -270,7 +641,9 @@ public class TicketOffice {
         if (itineraryChoice < 0 || itineraryChoice > itineraries.size())
             throw new NoSuchItineraryChoiceException(passengerId, itineraryChoice);
 
-        if (itineraryChoice != 0)
+        if (itineraryChoice != 0) {
             _trainCompany.addItinerary(passengerId, itineraries.get(itineraryChoice - 1));
+            logChanges();
+        }
     }
 }
@@ -0,0 +1,201 @@
+package mmt.core;
+
+import java.time.LocalTime;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A Timetable is a compact copy of the stations and services of a TrainCompany.
+ * Stations and services are identified by their dense indexes, and the stops of all the services
+ * are kept in flat arrays of station indexes and times (minutes of the day), service after service.
+ * A Timetable is an immutable snapshot: changes to the company are only seen by a new Timetable,
+ * so any number of searches can use it concurrently without locks.
+ *
+ * @author Grupo 38
+ * @author João Galinho (87667)
+ * @author Filipe Henriques (87653)
+ * @version 1.0
+ */
+class Timetable {
+
+    /**
+     * Stations, by index.
+     */
+    private final Station[] _stations;
+
+    /**
+     * Services, by index.
+     */
+    private final Service[] _services;
+
+    /**
+     * First stop of each service (the stops of service i are in [_offsets[i], _offsets[i + 1])).
+     */
+    private final int[] _offsets;
+
+    /**
+     * Station index of each stop.
+     */
+    private final int[] _stopStations;
+
+    /**
+     * Time (minutes of the day) of each stop.
+     */
+    private final int[] _stopMinutes;
+
+    /**
+     * Routers over this timetable, by strategy (built when first needed).
+     */
+    private final Map<SearchStrategy, ItineraryRouter> _routers = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     * Creates the timetable of the given stations and services.
+     *
+     * @param stations of the timetable (with indexes 0 to size - 1).
+     * @param services of the timetable (with indexes 0 to size - 1).
+     */
+    Timetable(Collection<Station> stations, Collection<Service> services) {
+        _stations = new Station[stations.size()];
+        for (Station station : stations)
+            _stations[station.getIndex()] = station;
+        _services = new Service[services.size()];
+        int stops = 0;
+        for (Service service : services) {
+            _services[service.getIndex()] = service;
+            stops += service.getStations().size();
+        }
+
+        _offsets = new int[_services.length + 1];
+        _stopStations = new int[stops];
+        _stopMinutes = new int[stops];
+        int stop = 0;
+        for (int index = 0; index < _services.length; index++) {
+            _offsets[index] = stop;
+            Service service = _services[index];
+            for (int position = 0; position < service.getStations().size(); position++, stop++) {
+                _stopStations[stop] = service.getStations().get(position).getIndex();
+                _stopMinutes[stop] = service.getMinutes(position);
+            }
+        }
+        _offsets[_services.length] = stop;
+    }
+
+    /**
+     * Returns the router with the given strategy over this timetable, building it if needed.
+     *
+     * @param strategy of the router.
+     * @return the router with the given strategy.
+     */
+    ItineraryRouter getRouter(SearchStrategy strategy) {
+        return _routers.computeIfAbsent(strategy, s -> s.createRouter(this));
+    }
+
+    /**
+     * Returns the minutes of the day of the time given as parameter.
+     *
+     * @param time to convert.
+     * @return the minutes of the day of the time.
+     */
+    static int toMinutes(LocalTime time) {
+        return time.toSecondOfDay() / 60;
+    }
+
+    /**
+     * Returns the time corresponding to the minutes of the day given as parameter.
+     *
+     * @param minutes of the day.
+     * @return the corresponding time.
+     */
+    static LocalTime toTime(int minutes) {
+        return LocalTime.of(minutes / 60, minutes % 60);
+    }
+
+    /**
+     * Returns the number of stations.
+     *
+     * @return the number of stations.
+     */
+    int getStationCount() {
+        return _stations.length;
+    }
+
+    /**
+     * Returns the station with the given index.
+     *
+     * @param index of the station.
+     * @return the station with the given index.
+     */
+    Station getStation(int index) {
+        return _stations[index];
+    }
+
+    /**
+     * Returns the number of services.
+     *
+     * @return the number of services.
+     */
+    int getServiceCount() {
+        return _services.length;
+    }
+
+    /**
+     * Returns the service with the given index.
+     *
+     * @param index of the service.
+     * @return the service with the given index.
+     */
+    Service getService(int index) {
+        return _services[index];
+    }
+
+    /**
+     * Returns the number of stops of all the services.
+     *
+     * @return the number of stops.
+     */
+    int getStopCount() {
+        return _stopStations.length;
+    }
+
+    /**
+     * Returns the first stop of a service.
+     *
+     * @param service index.
+     * @return the index of the service's first stop.
+     */
+    int getFirstStop(int service) {
+        return _offsets[service];
+    }
+
+    /**
+     * Returns the stop after the last stop of a service.
+     *
+     * @param service index.
+     * @return the index after the service's last stop.
+     */
+    int getEndStop(int service) {
+        return _offsets[service + 1];
+    }
+
+    /**
+     * Returns the station of a stop.
+     *
+     * @param stop index.
+     * @return the station index of the stop.
+     */
+    int getStopStation(int stop) {
+        return _stopStations[stop];
+    }
+
+    /**
+     * Returns the time of a stop.
+     *
+     * @param stop index.
+     * @return the time (minutes of the day) of the stop.
+     */
+    int getStopMinutes(int stop) {
+        return _stopMinutes[stop];
+    }
+}
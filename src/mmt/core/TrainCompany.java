@@ -2,11 +2,9 @@ package mmt.core;
 
 import mmt.core.exceptions.*;
 
-import java.io.Serializable;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * A Train Company has schedules (services) for its trains and passengers that
@@ -17,51 +15,129 @@ import java.util.stream.Collectors;
  * @author Filipe Henriques (87653)
  * @version 1.0
  */
-class TrainCompany implements Serializable {
+class TrainCompany {
 
     /**
-     * Serial number for serialization.
+     * Initial capacity of the table of passengers.
      */
-    private static final long serialVersionUID = 201708301010L;
+    private static final int INITIAL_PASSENGERS = 16;
 
     /**
-     * Passengers of the TrainCompany.
+     * Passengers of the TrainCompany, indexed by id (ids are sequential, so only the first
+     * _passengerCounter positions are used). Passengers still in the snapshot are null until first used.
      */
-    private Map<Integer, Passenger> _passengers;
+    private Passenger[] _passengers;
 
     /**
-     * Services of the TrainCompany.
+     * Ids of the passengers of the TrainCompany, by name.
+     */
+    private Map<String, Integer> _passengerIds;
+
+    /**
+     * Passengers of the snapshot the TrainCompany was loaded from, read when first used (or null).
+     */
+    private Snapshot.Passengers _snapshotPassengers;
+
+    /**
+     * Services of the TrainCompany, by id (ordered).
      */
     private Map<Integer, Service> _services;
 
     /**
-     * Stations of the TrainCompany.
+     * Stations of the TrainCompany, by name (in the order in which they were added).
      */
     private Map<String, Station> _stations;
 
     /**
-     * Counter for passengers' id.
+     * Services that start at each station, sorted by departure time (and by id).
+     */
+    private Map<Station, List<Service>> _startingServices;
+
+    /**
+     * Services that end at each station, sorted by arrival time (and by id).
+     */
+    private Map<Station, List<Service>> _endingServices;
+
+    /**
+     * Counter for passengers' id (and number of passengers).
      */
     private int _passengerCounter;
 
+    /**
+     * Policy that defines the category of the passengers.
+     */
+    private LoyaltyPolicy _loyaltyPolicy = LoyaltyPolicy.DEFAULT;
+
+    /**
+     * Snapshot of the stations and services used by searches (published by {@link #publishTimetable}).
+     */
+    private volatile Timetable _timetable;
+
+    /**
+     * Ids of the passengers changed since the last save.
+     */
+    private BitSet _changedPassengers = new BitSet();
+
+    /**
+     * Indexes of the services changed since the last save.
+     */
+    private BitSet _changedServices = new BitSet();
+
+    /**
+     * Number of stations at the last save (the following ones were added since then).
+     */
+    private int _savedStations;
+
+    /**
+     * Whether the passengers were erased since the last save.
+     */
+    private boolean _passengersErased;
+
+    /**
+     * Whether the loyalty policy was changed since the last save.
+     */
+    private boolean _loyaltyPolicyChanged;
+
+    /**
+     * Names of the stations, interned so each one is a single string (names of passengers aren't interned,
+     * since they can be changed and erased, and the table only grows).
+     */
+    private NameTable _stationNames = new NameTable();
+
     /**
      * Constructor.
      * <p>
      * Creates a TrainCompany with all its attributes.
      */
     TrainCompany() {
-        _services = new HashMap<>();
-        _passengers = new HashMap<>();
-        _stations = new HashMap<>();
+        _services = new TreeMap<>();
+        _passengers = new Passenger[INITIAL_PASSENGERS];
+        _passengerIds = new HashMap<>();
+        _stations = new LinkedHashMap<>();
+        _startingServices = new HashMap<>();
+        _endingServices = new HashMap<>();
+        publishTimetable();
     }
 
     /**
-     * Returns the map of passengers.
+     * Returns the passengers, ordered by id.
      *
-     * @return Unmodifiable Map of _passengers.
+     * @return unmodifiable view of the passengers.
      */
-    List<Passenger> getPassengers() {
-        return new ArrayList<>(_passengers.values());
+    Collection<Passenger> getPassengers() {
+        return new AbstractList<Passenger>() {
+            @Override
+            public Passenger get(int index) {
+                if (index < 0 || index >= _passengerCounter)
+                    throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + _passengerCounter);
+                return getPassenger(index);
+            }
+
+            @Override
+            public int size() {
+                return _passengerCounter;
+            }
+        };
     }
 
     /**
@@ -72,18 +148,79 @@ class TrainCompany implements Serializable {
      * @throws NoSuchPassengerIdException if there is no passenger with the id given as parameter.
      */
     Passenger getPassengerById(int id) throws NoSuchPassengerIdException {
-        if (!(_passengers.containsKey(id)))
+        if (id < 0 || id >= _passengerCounter)
             throw new NoSuchPassengerIdException(id);
-        return _passengers.get(id);
+        return getPassenger(id);
+    }
+
+    /**
+     * Returns the passenger with a valid id, reading it from the snapshot if it wasn't used yet.
+     *
+     * @param id of the passenger.
+     * @return the passenger with the id given as parameter.
+     */
+    private Passenger getPassenger(int id) {
+        Passenger passenger = _passengers[id];
+        if (passenger == null) {
+            passenger = _snapshotPassengers.read(id, _loyaltyPolicy);
+            _passengers[id] = passenger;
+        }
+        return passenger;
+    }
+
+    /**
+     * Returns the passenger with the id given as parameter if it was already read from the snapshot.
+     *
+     * @param id of the passenger (valid).
+     * @return the passenger, or null if it is still only in the snapshot.
+     */
+    Passenger getLoadedPassenger(int id) {
+        return _passengers[id];
+    }
+
+    /**
+     * Returns the passengers of the snapshot the TrainCompany was loaded from.
+     *
+     * @return the snapshot's passengers, or null if the TrainCompany wasn't loaded from a snapshot.
+     */
+    Snapshot.Passengers getSnapshotPassengers() {
+        return _snapshotPassengers;
+    }
+
+    /**
+     * Adds the passengers of a snapshot to the (empty) TrainCompany, to be read only when first used.
+     *
+     * @param passengers of the snapshot.
+     */
+    void setSnapshotPassengers(Snapshot.Passengers passengers) {
+        _snapshotPassengers = passengers;
+        _passengerCounter = passengers.size();
+        _passengers = new Passenger[Math.max(INITIAL_PASSENGERS, _passengerCounter)];
+        for (int id = 0; id < _passengerCounter; id++)
+            _passengerIds.put(passengers.getName(id), id);
     }
 
     /**
-     * Returns the list of all services.
+     * Returns the passenger with the name given as parameter.
      *
-     * @return list of all services.
+     * @param name of the passenger to return.
+     * @return passenger with the name given as parameter.
+     * @throws NoSuchPassengerNameException if there is no passenger with the name given as parameter.
      */
-    List<Service> getServices() {
-        return new ArrayList<>(_services.values());
+    Passenger getPassengerByName(String name) throws NoSuchPassengerNameException {
+        Integer id = _passengerIds.get(name);
+        if (id == null)
+            throw new NoSuchPassengerNameException(name);
+        return getPassenger(id);
+    }
+
+    /**
+     * Returns all the services, ordered by id.
+     *
+     * @return unmodifiable view of the services.
+     */
+    Collection<Service> getServices() {
+        return Collections.unmodifiableCollection(_services.values());
     }
 
     /**
@@ -101,38 +238,76 @@ class TrainCompany implements Serializable {
     }
 
     /**
-     * Returns the list of all stations.
+     * Returns all the stations, ordered by index (the order in which they were added).
      *
-     * @return list of all stations.
+     * @return unmodifiable view of the stations.
      */
-    List<Station> getStations() {
-        return new ArrayList<>(_stations.values());
+    Collection<Station> getStations() {
+        return Collections.unmodifiableCollection(_stations.values());
     }
 
     /**
-     * Adds a Station for a Service to the TrainCompany, if it doesn't exist already.
+     * Returns the station with the name given as parameter, adding it to the TrainCompany if it doesn't exist
+     * (only through a bulk load).
      *
-     * @param serviceId of the service to add to the new station.
-     * @param name of the station to add.
-     * @param time of departure in the station to add.
-     * @throws NoSuchServiceIdException if there is no service with the id given as parameter.
-     * @throws NonUniqueStationAtServiceException if already exists a station in the service with the name given as
-     *                                            parameter.
+     * @param name of the station.
+     * @return the station with the name given as parameter.
      */
-    void addStation(int serviceId, String name, LocalTime time) throws NoSuchServiceIdException, NonUniqueStationAtServiceException {
-        Service service = getServiceById(serviceId);
-
-        _stations.putIfAbsent(name, new Station(name));
+    private Station getOrAddStation(String name) {
         Station station = _stations.get(name);
+        if (station == null) {
+            name = _stationNames.intern(name);
+            station = new Station(_stations.size(), name);
+            _stations.put(name, station);
+        }
+        return station;
+    }
 
-        station.addService(service, time);
-        service.addStation(station);
+    /**
+     * Adds a Station of the TrainCompany to one of its Services (only through a bulk load, which publishes
+     * the timetable when it is committed).
+     *
+     * @param service to add the station to.
+     * @param station to add.
+     * @param time of the service at the station.
+     * @throws NonUniqueStationAtServiceException if the service already goes through the station.
+     */
+    private void addStation(Service service, Station station, LocalTime time) throws NonUniqueStationAtServiceException {
+        List<Station> stations = service.getStations();
+        Station oldFirst = stations.isEmpty() ? null : service.getFirstStation();
+        Station oldLast = stations.isEmpty() ? null : service.getLastStation();
+        service.addStation(station, time);
+        _changedServices.set(service.getIndex());
+        moveService(_startingServices, service, oldFirst, service.getFirstStation());
+        moveService(_endingServices, service, oldLast, service.getLastStation());
+    }
+
+    /**
+     * Moves a service from the services of a station to the services of another one, keeping them sorted by
+     * the service's time at the station.
+     *
+     * @param services by station.
+     * @param service to move.
+     * @param from station where the service was (or null).
+     * @param to station where the service will be.
+     */
+    private static void moveService(Map<Station, List<Service>> services, Service service, Station from, Station to) {
+        if (from == to)
+            return;
+        if (from != null)
+            services.get(from).remove(service);
+        List<Service> toServices = services.computeIfAbsent(to, s -> new ArrayList<>());
+        int index = Collections.binarySearch(toServices, service,
+            Comparator.comparing(to::getTime).thenComparingInt(Service::getId));
+        toServices.add(-index - 1, service);
     }
 
     void addStationName(String name) throws NonUniquePassengerNameException {
         if (_stations.containsKey(name))
             throw new NonUniquePassengerNameException(name);
-        _stations.put(name, new Station(name));
+        name = _stationNames.intern(name);
+        _stations.put(name, new Station(_stations.size(), name));
+        publishTimetable();
     }
 
     /**
@@ -150,31 +325,64 @@ class TrainCompany implements Serializable {
     }
 
     /**
-     * Adds a service to the TrainCompany.
+     * Returns the services that start at the station with the name given as parameter.
+     *
+     * @param name of the station.
+     * @return unmodifiable list of the services that start at the station, sorted by departure time.
+     * @throws NoSuchStationNameException if there is no station with the name given as parameter.
+     */
+    List<Service> getServicesStartingAt(String name) throws NoSuchStationNameException {
+        return Collections.unmodifiableList(_startingServices.getOrDefault(getStation(name), Collections.emptyList()));
+    }
+
+    /**
+     * Returns the services that end at the station with the name given as parameter.
+     *
+     * @param name of the station.
+     * @return unmodifiable list of the services that end at the station, sorted by arrival time.
+     * @throws NoSuchStationNameException if there is no station with the name given as parameter.
+     */
+    List<Service> getServicesEndingAt(String name) throws NoSuchStationNameException {
+        return Collections.unmodifiableList(_endingServices.getOrDefault(getStation(name), Collections.emptyList()));
+    }
+
+    /**
+     * Adds a service to the TrainCompany (only through a bulk load).
      *
      * @param id   of the service to add.
      * @param cost of the service to add.
+     * @return the added service.
      * @throws NonUniqueServiceIdException if there already exists a service with
      *                                     the same id as the one given as parameter.
      */
-    void addService(int id, double cost) throws NonUniqueServiceIdException {
+    private Service addService(int id, double cost) throws NonUniqueServiceIdException {
         if (_services.containsKey(id))
             throw new NonUniqueServiceIdException(id);
-        _services.put(id, new Service(id, cost));
+        Service service = new Service(id, _services.size(), cost);
+        _services.put(id, service);
+        _changedServices.set(service.getIndex());
+        return service;
     }
 
     /**
      * Adds a passenger to the TrainCompany.
      *
      * @param name of the passenger to add.
+     * @return the added passenger.
      * @throws NonUniquePassengerNameException if there already exists a passenger
      *                                         with the name given as parameter.
      */
-    void addPassenger(String name) throws NonUniquePassengerNameException {
-        if (getPassengers().parallelStream().map(Passenger::getName).anyMatch(name::equals))
+    Passenger addPassenger(String name) throws NonUniquePassengerNameException {
+        if (_passengerIds.containsKey(name))
             throw new NonUniquePassengerNameException(name);
-        _passengers.put(_passengerCounter, new Passenger(_passengerCounter, name));
+        Passenger passenger = new Passenger(_passengerCounter, name, _loyaltyPolicy);
+        if (_passengerCounter == _passengers.length)
+            _passengers = Arrays.copyOf(_passengers, 2 * _passengers.length);
+        _passengers[_passengerCounter] = passenger;
+        _passengerIds.put(name, _passengerCounter);
+        _changedPassengers.set(_passengerCounter);
         _passengerCounter += 1;
+        return passenger;
     }
 
     /**
@@ -188,17 +396,62 @@ class TrainCompany implements Serializable {
      *                                         with the name given as parameter.
      */
     void changePassengerName(int id, String newName) throws NoSuchPassengerIdException, NonUniquePassengerNameException {
-        if (getPassengers().parallelStream().map(Passenger::getName).anyMatch(newName::equals))
+        if (_passengerIds.containsKey(newName))
             throw new NonUniquePassengerNameException(newName);
-        getPassengerById(id).setName(newName);
+        Passenger passenger = getPassengerById(id);
+        _passengerIds.remove(passenger.getName());
+        passenger.setName(newName);
+        _passengerIds.put(newName, id);
+        _changedPassengers.set(id);
+    }
+
+    /**
+     * Restores a passenger's name, saved when other passengers may still have their old names
+     * (which can be the new name of this one).
+     *
+     * @param id of the passenger (valid).
+     * @param name of the passenger.
+     */
+    void restorePassengerName(int id, String name) {
+        Passenger passenger = getPassenger(id);
+        _passengerIds.remove(passenger.getName(), id);
+        passenger.setName(name);
+        _passengerIds.put(name, id);
     }
 
     /**
      * Erases all passengers from the TrainCompany.
      */
     void erasePassengers() {
-        _passengers.clear();
+        Arrays.fill(_passengers, 0, _passengerCounter, null);
+        _passengerIds.clear();
         _passengerCounter = 0;
+        _snapshotPassengers = null;
+        _changedPassengers.clear();
+        _passengersErased = true;
+    }
+
+    /**
+     * Returns the policy that defines the category of the passengers.
+     *
+     * @return the loyalty policy.
+     */
+    LoyaltyPolicy getLoyaltyPolicy() {
+        return _loyaltyPolicy;
+    }
+
+    /**
+     * Changes the policy that defines the category of the passengers, present and future.
+     * Passengers still in the snapshot get the policy when they are read.
+     *
+     * @param loyaltyPolicy to use.
+     */
+    void setLoyaltyPolicy(LoyaltyPolicy loyaltyPolicy) {
+        _loyaltyPolicy = loyaltyPolicy;
+        _loyaltyPolicyChanged = true;
+        for (int id = 0; id < _passengerCounter; id++)
+            if (_passengers[id] != null)
+                _passengers[id].setLoyaltyPolicy(loyaltyPolicy);
     }
 
     /**
@@ -209,6 +462,103 @@ class TrainCompany implements Serializable {
      */
     void addItinerary(int passengerId, Itinerary itinerary) throws NoSuchPassengerIdException {
         getPassengerById(passengerId).addItinerary(itinerary);
+        _changedPassengers.set(passengerId);
+    }
+
+    /**
+     * Returns the table where the names of the stations are interned.
+     * Names can be looked up (and added) in it by any thread.
+     *
+     * @return the table of station names.
+     */
+    NameTable getStationNames() {
+        return _stationNames;
+    }
+
+    /**
+     * Starts a bulk load of services and itineraries into the TrainCompany.
+     *
+     * @return the bulk load (its changes are complete only after it is committed).
+     */
+    BulkLoad startBulkLoad() {
+        return new BulkLoad();
+    }
+
+    /**
+     * Returns the ids of the passengers changed since the last save.
+     *
+     * @return the ids of the changed passengers (not to be modified).
+     */
+    BitSet getChangedPassengers() {
+        return _changedPassengers;
+    }
+
+    /**
+     * Returns the indexes of the services changed since the last save.
+     *
+     * @return the indexes of the changed services (not to be modified).
+     */
+    BitSet getChangedServices() {
+        return _changedServices;
+    }
+
+    /**
+     * Returns the number of stations at the last save.
+     *
+     * @return the number of stations saved.
+     */
+    int getSavedStationCount() {
+        return _savedStations;
+    }
+
+    /**
+     * Returns true if the passengers were erased since the last save.
+     *
+     * @return true if the passengers were erased.
+     */
+    boolean arePassengersErased() {
+        return _passengersErased;
+    }
+
+    /**
+     * Returns true if the TrainCompany changed since the last save.
+     *
+     * @return true if there are changes not saved yet.
+     */
+    boolean hasChanges() {
+        return _loyaltyPolicyChanged || _passengersErased || _savedStations < _stations.size()
+            || !_changedServices.isEmpty() || !_changedPassengers.isEmpty();
+    }
+
+    /**
+     * Marks the TrainCompany as saved: the following changes are the ones saved by the next save.
+     */
+    void markSaved() {
+        for (int id = _changedPassengers.nextSetBit(0); id >= 0; id = _changedPassengers.nextSetBit(id + 1))
+            if (id < _passengerCounter && _passengers[id] != null)
+                _passengers[id].markSaved();
+        _changedPassengers.clear();
+        _changedServices.clear();
+        _savedStations = _stations.size();
+        _passengersErased = false;
+        _loyaltyPolicyChanged = false;
+    }
+
+    /**
+     * Publishes a new snapshot of the stations and services, to be used by the following searches.
+     * Must be called after the timetable is changed (by a station added or a bulk load committed).
+     */
+    private void publishTimetable() {
+        _timetable = new Timetable(_stations.values(), _services.values());
+    }
+
+    /**
+     * Returns the last published snapshot of the stations and services.
+     *
+     * @return the timetable.
+     */
+    Timetable getTimetable() {
+        return _timetable;
     }
 
     /**
@@ -218,37 +568,251 @@ class TrainCompany implements Serializable {
      * @param end Station to which the itinerary will end.
      * @param day of the itinerary.
      * @param time of the departure station.
+     * @param strategy used to search the itineraries (which also defines their order).
      * @return a list of all the possible itineraries that conform with the specifications given as parameters.
      */
-    List<Itinerary> searchItineraries(Station start, Station end, LocalDate day, LocalTime time) {
-        List<Itinerary> itineraries = searchItinerariesAux(start, end, day, time, new ArrayList<>());
-        itineraries.sort(Comparator.comparing(Itinerary::getStartTime).thenComparing(Itinerary::getEndTime));
+    List<Itinerary> searchItineraries(Station start, Station end, LocalDate day, LocalTime time, SearchStrategy strategy) {
+        Timetable timetable = _timetable;
+        List<Itinerary> itineraries = timetable.getRouter(strategy).search(start, end, day, time);
+        strategy.sort(itineraries, timetable);
         return itineraries;
     }
 
     /**
-     * Auxiliary method to {@link #searchItineraries}.
+     * A bulk load adds many services and itineraries to the TrainCompany, deferring the work that doesn't need
+     * to be done for each one.
+     * Each service gets all its stations at once (so its stops are sorted and built only once), and the
+     * itineraries are charged to their passengers when the load is committed. Then, the services of each station
+     * and the services starting and ending at each station are sorted only once, and the timetable is published.
+     * Until it is committed, the TrainCompany must only be changed through the bulk load.
      */
-    private List<Itinerary> searchItinerariesAux(Station start, Station end, LocalDate day, LocalTime time, List<Itinerary> itineraries) {
-        List<Service> services = start.getServices().stream()
-            .filter(service -> start.getTime(service).isAfter(time))
-            .collect(Collectors.toList());
+    class BulkLoad {
 
-        services.stream()
-            .filter(service -> service.getStations().contains(end)
-                && end.getTime(service).isAfter(start.getTime(service)))
-            .map(service -> new Itinerary(day, service, start, end))
-            .forEach(itineraries::add);
+        /**
+         * Services added by the bulk load.
+         */
+        private final List<Service> _addedServices = new ArrayList<>();
 
-        if (itineraries.isEmpty())
-            services.forEach(service ->
-                service.getStationsAfter(start).stream()
-                    .map(station -> searchItinerariesAux(station, end, day, station.getTime(service), new ArrayList<>(itineraries)))
-                    .flatMap(List::stream)
-                    .filter(itinerary -> itinerary.addTripStart(service, start, itinerary.getFirstTrip().getStart()))
-                    .min(Comparator.comparing(Itinerary::getEndTime))
-                    .ifPresent(itineraries::add));
+        /**
+         * Passengers of the itineraries added by the bulk load.
+         */
+        private final List<Passenger> _bookingPassengers = new ArrayList<>();
 
-        return itineraries;
+        /**
+         * Itineraries added by the bulk load.
+         */
+        private final List<Itinerary> _bookings = new ArrayList<>();
+
+        /**
+         * Adds a service, with the stations with the names given as parameter (added to the TrainCompany if
+         * they don't exist).
+         * If the service has a duplicate station, it is added with the stations before it.
+         *
+         * @param id of the service to add.
+         * @param cost of the service to add.
+         * @param names of the stations of the service.
+         * @param minutes of the service at each station.
+         * @return the added service.
+         * @throws NonUniqueServiceIdException if there already exists a service with the same id.
+         * @throws NonUniqueStationAtServiceException if the service has a duplicate station.
+         */
+        Service addService(int id, double cost, String[] names, int[] minutes)
+            throws NonUniqueServiceIdException, NonUniqueStationAtServiceException {
+            Service service = TrainCompany.this.addService(id, cost);
+            Station[] stations = new Station[names.length];
+            Set<Station> distinct = new HashSet<>();
+            int count = 0;
+            while (count < names.length && distinct.add(stations[count] = getOrAddStation(names[count])))
+                count++;
+            addStations(service, stations, minutes, count);
+            return service;
+        }
+
+        /**
+         * Adds a service, with the stations given as parameter.
+         * If the service has a duplicate station, it is added with the stations before it.
+         *
+         * @param id of the service to add.
+         * @param cost of the service to add.
+         * @param stations of the service (of the TrainCompany).
+         * @param minutes of the service at each station.
+         * @return the added service.
+         * @throws NonUniqueServiceIdException if there already exists a service with the same id.
+         * @throws NonUniqueStationAtServiceException if the service has a duplicate station.
+         */
+        Service addService(int id, double cost, Station[] stations, int[] minutes)
+            throws NonUniqueServiceIdException, NonUniqueStationAtServiceException {
+            Service service = TrainCompany.this.addService(id, cost);
+            Set<Station> distinct = new HashSet<>();
+            int count = 0;
+            while (count < stations.length && distinct.add(stations[count]))
+                count++;
+            addStations(service, stations, minutes, count);
+            return service;
+        }
+
+        /**
+         * Adds the first stations to a service added by the bulk load.
+         *
+         * @throws NonUniqueStationAtServiceException if the station after them is a duplicate.
+         */
+        private void addStations(Service service, Station[] stations, int[] minutes, int count)
+            throws NonUniqueStationAtServiceException {
+            service.addStations(stations, minutes, count);
+            _addedServices.add(service);
+            if (count < stations.length)
+                throw new NonUniqueStationAtServiceException(stations[count].getName(), service.getId());
+        }
+
+        /**
+         * Adds a service without stations.
+         *
+         * @param id of the service to add.
+         * @param cost of the service to add.
+         * @return the added service.
+         * @throws NonUniqueServiceIdException if there already exists a service with the same id.
+         */
+        Service addService(int id, double cost) throws NonUniqueServiceIdException {
+            return TrainCompany.this.addService(id, cost);
+        }
+
+        /**
+         * Adds a station to a service of the TrainCompany, keeping the services starting and ending at each
+         * station sorted.
+         *
+         * @param service to add the station to.
+         * @param station to add (of the TrainCompany).
+         * @param time of the service at the station.
+         * @throws NonUniqueStationAtServiceException if the service already goes through the station.
+         */
+        void addStation(Service service, Station station, LocalTime time) throws NonUniqueStationAtServiceException {
+            TrainCompany.this.addStation(service, station, time);
+        }
+
+        /**
+         * Returns the station with the name given as parameter, adding it to the TrainCompany if it doesn't exist.
+         *
+         * @param name of the station.
+         * @return the station with the name given as parameter.
+         */
+        Station getOrAddStation(String name) {
+            return TrainCompany.this.getOrAddStation(name);
+        }
+
+        /**
+         * Adds a passenger to the TrainCompany.
+         *
+         * @param name of the passenger to add.
+         * @return the added passenger.
+         * @throws NonUniquePassengerNameException if there already exists a passenger with the same name.
+         */
+        Passenger addPassenger(String name) throws NonUniquePassengerNameException {
+            return TrainCompany.this.addPassenger(name);
+        }
+
+        /**
+         * Adds an itinerary to a passenger, charged when the bulk load is committed.
+         *
+         * @param passengerId of the passenger.
+         * @param itinerary to add.
+         * @throws NoSuchPassengerIdException if there is no passenger with the id given as parameter.
+         */
+        void addItinerary(int passengerId, Itinerary itinerary) throws NoSuchPassengerIdException {
+            _bookingPassengers.add(getPassengerById(passengerId));
+            _bookings.add(itinerary);
+        }
+
+        /**
+         * Returns the service with the id given as parameter.
+         *
+         * @param id of the service.
+         * @return the service.
+         * @throws NoSuchServiceIdException if there is no service with the id given as parameter.
+         */
+        Service getServiceById(int id) throws NoSuchServiceIdException {
+            return TrainCompany.this.getServiceById(id);
+        }
+
+        /**
+         * Returns the station with the name given as parameter.
+         *
+         * @param name of the station.
+         * @return the station.
+         * @throws NoSuchStationNameException if there is no station with the name given as parameter.
+         */
+        Station getStation(String name) throws NoSuchStationNameException {
+            return TrainCompany.this.getStation(name);
+        }
+
+        /**
+         * Commits the bulk load: adds the services to the services starting and ending at their stations,
+         * charges the itineraries to their passengers (in the order they were added) and publishes the timetable.
+         */
+        void commit() {
+            Map<Station, AddedServices> starting = new HashMap<>();
+            Map<Station, AddedServices> ending = new HashMap<>();
+            _addedServices.sort(Comparator.comparingInt(Service::getId));
+            for (Service service : _addedServices) {
+                List<Station> stations = service.getStations();
+                if (stations.isEmpty())
+                    continue;
+                int last = stations.size() - 1;
+                starting.computeIfAbsent(stations.get(0), s -> new AddedServices()).add(service, service.getMinutes(0));
+                ending.computeIfAbsent(stations.get(last), s -> new AddedServices()).add(service, service.getMinutes(last));
+            }
+            addServices(_startingServices, starting);
+            addServices(_endingServices, ending);
+
+            for (int i = 0; i < _bookings.size(); i++) {
+                Passenger passenger = _bookingPassengers.get(i);
+                passenger.addItinerary(_bookings.get(i));
+                _changedPassengers.set(passenger.getId());
+            }
+
+            _addedServices.clear();
+            _bookingPassengers.clear();
+            _bookings.clear();
+            publishTimetable();
+        }
+    }
+
+    /**
+     * Adds services to the services of some stations, keeping them sorted by the service's time at the station.
+     *
+     * @param services by station.
+     * @param added services to add, by station.
+     */
+    private static void addServices(Map<Station, List<Service>> services, Map<Station, AddedServices> added) {
+        added.forEach((station, stationAdded) -> services.put(station, station.mergeServices(
+            services.getOrDefault(station, Collections.emptyList()), stationAdded._services, stationAdded._minutes)));
+    }
+
+    /**
+     * Services added to a station by a bulk load (sorted by id), with their times at the station.
+     */
+    private static class AddedServices {
+
+        /**
+         * Services added to the station.
+         */
+        private final List<Service> _services = new ArrayList<>();
+
+        /**
+         * Time (minutes of the day) of each service at the station.
+         */
+        private int[] _minutes = new int[8];
+
+        /**
+         * Adds a service.
+         *
+         * @param service added to the station.
+         * @param minutes of the service at the station.
+         */
+        void add(Service service, int minutes) {
+            if (_services.size() == _minutes.length)
+                _minutes = Arrays.copyOf(_minutes, 2 * _minutes.length);
+            _minutes[_services.size()] = minutes;
+            _services.add(service);
+        }
     }
 }
\ No newline at end of file
@@ -1,6 +1,5 @@
 package mmt.core;
 
-import java.io.Serializable;
 import java.time.Duration;
 import java.time.LocalTime;
 import java.util.*;
@@ -13,11 +12,7 @@ import java.util.*;
  * @author Filipe Henriques (87653)
  * @version 1.0
  */
-class Trip implements Serializable {
-    /**
-     * Serial number for serialization.
-     */
-    private static final long serialVersionUID = -2363183161366495392L;
+class Trip {
 
     /**
      * Service of the Trip.
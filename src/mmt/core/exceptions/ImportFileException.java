@@ -8,6 +8,9 @@ public class ImportFileException extends Exception {
   /** Serial number for serialization. */
   private static final long serialVersionUID = 201708301010L;
 
+  /** Line of the file where the error was found (0 if unknown). */
+  private int _line;
+
   /**
    * Default constructor
    */
@@ -29,4 +32,26 @@ public class ImportFileException extends Exception {
     super(cause);
   }
 
+  /**
+   * @param description
+   * @param cause
+   */
+  public ImportFileException(String description, Exception cause) {
+    super(description, cause);
+  }
+
+  /**
+   * @param line
+   * @param cause
+   */
+  public ImportFileException(int line, Exception cause) {
+    super("line " + line + (cause.getMessage() != null ? ": " + cause.getMessage() : ""), cause);
+    _line = line;
+  }
+
+  /** @return line (0 if unknown) */
+  public int getLine() {
+    return _line;
+  }
+
 }
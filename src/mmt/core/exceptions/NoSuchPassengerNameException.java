@@ -0,0 +1,24 @@
+package mmt.core.exceptions;
+
+/** Exception thrown when the requested passenger does not exist. */
+public class NoSuchPassengerNameException extends Exception {
+
+  /** Serial number for serialization. */
+  private static final long serialVersionUID = 201712011500L;
+
+  /** Passenger name. */
+  private String _name;
+
+  /**
+   * @param name
+   */
+  public NoSuchPassengerNameException(String name) {
+    _name = name;
+  }
+
+  /** @return name */
+  public String getName() {
+    return _name;
+  }
+
+}
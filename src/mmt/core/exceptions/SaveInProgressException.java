@@ -0,0 +1,24 @@
+package mmt.core.exceptions;
+
+/** Launched when a save is requested while the previous one is still being written. */
+public class SaveInProgressException extends Exception {
+
+  /** Serial number for serialization. */
+  private static final long serialVersionUID = 201712021000L;
+
+  /** Name of the file being written. */
+  private String _filename;
+
+  /**
+   * @param filename
+   */
+  public SaveInProgressException(String filename) {
+    _filename = filename;
+  }
+
+  /** @return filename */
+  public String getFilename() {
+    return _filename;
+  }
+
+}